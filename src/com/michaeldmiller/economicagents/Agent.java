@@ -11,6 +11,13 @@ public class Agent {
     private Profession profession;
     private double money;
     private double satisfaction;
+    // number of identical agents this record stands for, see Cohorts. The other fields are per member
+    private int count;
+    // position on the map, see Geography
+    private double x;
+    private double y;
+    // told about changes to money, satisfaction, count and profession, null when nothing is observing the agent
+    private AgentObserver observer;
 
     public Agent(String id, HashMap<String, Double> inventory, ArrayList<Priority> priorities,
                  HashMap<String, Consumption> consumption, Profession profession, double money,
@@ -22,6 +29,7 @@ public class Agent {
         this.profession = profession;
         this.money = money;
         this.satisfaction = satisfaction;
+        this.count = 1;
     }
 
     public String getId() {
@@ -52,6 +60,22 @@ public class Agent {
         return satisfaction;
     }
 
+    public int getCount() {
+        return count;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public AgentObserver getObserver() {
+        return observer;
+    }
+
     public void setId(String newID) {
         id = newID;
     }
@@ -69,17 +93,64 @@ public class Agent {
     }
 
     public void setProfession(Profession newProfession) {
+        if (observer != null){
+            observer.professionChanged(this, newProfession.getTemplate(), newProfession.getSkillLevel(),
+                    newProfession.getShortRunProduction(), newProfession.getSupplyElasticityVariance());
+        }
         profession = newProfession;
     }
 
+    // switch the agent's own Profession to another job in place, without allocating a new one. A career switch takes
+    // the job's own price elasticity of supply, without variance
+    public void changeProfession(ProfessionTemplate newTemplate, double newSkillLevel, double newShortRunProduction) {
+        changeProfession(newTemplate, newSkillLevel, newShortRunProduction, 1.0);
+    }
+
+    public void changeProfession(ProfessionTemplate newTemplate, double newSkillLevel, double newShortRunProduction,
+                                 double newSupplyElasticityVariance) {
+        if (observer != null){
+            observer.professionChanged(this, newTemplate, newSkillLevel, newShortRunProduction,
+                    newSupplyElasticityVariance);
+        }
+        profession.setTemplate(newTemplate);
+        profession.setSkillLevel(newSkillLevel);
+        profession.setShortRunProduction(newShortRunProduction);
+        profession.setSupplyElasticityVariance(newSupplyElasticityVariance);
+    }
+
     public void setMoney(double newMoney) {
+        if (observer != null){
+            observer.moneyChanged(this, money, newMoney);
+        }
         money = newMoney;
     }
 
     public void setSatisfaction(double newSatisfaction) {
+        if (observer != null){
+            observer.satisfactionChanged(this, satisfaction, newSatisfaction);
+        }
         satisfaction = newSatisfaction;
     }
 
+    public void setCount(int newCount) {
+        if (observer != null){
+            observer.countChanged(this, count, newCount);
+        }
+        count = newCount;
+    }
+
+    public void setX(double newX) {
+        x = newX;
+    }
+
+    public void setY(double newY) {
+        y = newY;
+    }
+
+    public void setObserver(AgentObserver newObserver) {
+        observer = newObserver;
+    }
+
     public String toString() {
         return ("\n\n" + "ID: " + this.getId() + ",\n" +
                 "Inventory: " + this.getInventory() + ",\n" +
@@ -87,6 +158,7 @@ public class Agent {
                 "Consumption: " + this.getConsumption() + ",\n" +
                 "Profession: " + this.getProfession() + ",\n" +
                 "Money: " + this.getMoney() + ",\n" +
-                "Satisfaction: " + this.getSatisfaction() + ".");
+                "Satisfaction: " + this.getSatisfaction() + ",\n" +
+                "Count: " + this.getCount() + ".");
     }
 }
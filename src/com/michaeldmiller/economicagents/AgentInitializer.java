@@ -0,0 +1,98 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Starting state of a new agent in a market profile, in one place for makeAgents (new agents) and
+// Demographics.reinitialize (empty slots reused for births). For each good of the agent's basket: base consumption
+// with up to 7% variance, 5 times the base consumption in inventory, and a fresh priority with up to 2.5% variance in
+// price elasticity of demand; then a profession picked by job chance, with up to 2.5% variance in price elasticity
+// of supply, and the starting money of its good.
+// Only the agent's own basket is visited, so setting up an agent costs O(basket) plus the profession pick.
+public class AgentInitializer {
+    private final HashMap<String, MarketInfo> profileByGood;
+    // profession choices and their weights, the same for every agent
+    private final ArrayList<String> professionChoices;
+    private final ArrayList<Integer> professionWeights;
+    private final Map<String, ProfessionTemplate> professionTemplates;
+
+    public AgentInitializer(ArrayList<MarketInfo> marketProfile, Map<String, ProfessionTemplate> professionTemplates) {
+        this.profileByGood = new HashMap<String, MarketInfo>();
+        this.professionChoices = new ArrayList<String>();
+        this.professionWeights = new ArrayList<Integer>();
+        this.professionTemplates = professionTemplates;
+        for (MarketInfo marketInfo : marketProfile){
+            profileByGood.put(marketInfo.getGood(), marketInfo);
+            professionChoices.add(marketInfo.getGood());
+            professionWeights.add((int) (marketInfo.getJobChance() * 100));
+        }
+    }
+
+    // a new agent consuming the given goods (in order), in its starting state
+    public Agent newAgent(String id, ArrayList<String> basket, Random random){
+        HashMap<String, Consumption> agentConsumption = new HashMap<String, Consumption>();
+        HashMap<String, Double> agentInventory = new HashMap<String, Double>();
+        ArrayList<Priority> agentPriorities = new ArrayList<Priority>();
+        for (String good : basket){
+            agentConsumption.put(good, new Consumption(0, 0, new ArrayList<UnmetConsumption>()));
+            agentInventory.put(good, 0.0);
+            agentPriorities.add(new Priority(good, 0, 1, 1, 0, 0, 1));
+        }
+        Agent a = new Agent(id, agentInventory, agentPriorities, agentConsumption,
+                new Profession(ProfessionTemplate.NONE, 1, 1.0), 0, 0);
+        initialize(a, random);
+        return a;
+    }
+
+    // write the starting state into the agent's existing objects, for the goods of its priorities. The agent must
+    // not be counted by any observer yet (new, or an empty slot with a count of 0), its count is left as it is
+    public void initialize(Agent a, Random random){
+        for (Priority p : a.getPriorities()){
+            MarketInfo marketInfo = profileByGood.get(p.getGood());
+            if (marketInfo == null){
+                continue;
+            }
+            // put base consumption with variance (standard deviation 7%)
+            // double consumptionVariance = 1 + random.nextGaussian(0.0,0.07);
+            double consumptionVariance = 1 + (0.07 * random.nextDouble());
+            Consumption c = a.getConsumption().get(p.getGood());
+            c.setTickConsumption(marketInfo.getBaseConsumption() * consumptionVariance);
+            c.setTotalUnmetNeed(0);
+            c.getUnmetNeeds().clear();
+            // put 5 * base good consumption of good in agent's inventory
+            a.getInventory().put(p.getGood(), 5 * marketInfo.getBaseConsumption());
+            // add good priority to agent with variance (standard deviation 2.5%)
+            // double demandElasticityVariance = 1 + random.nextGaussian(0.0,0.025);
+            double demandElasticityVariance = 1 + (0.025 * random.nextDouble());
+            double demandElasticity = marketInfo.getPriceElasticityDemand() * demandElasticityVariance;
+            p.setBaseWeight(marketInfo.getPriorityBaseWeight());
+            p.setRelativeNeed(1);
+            p.setModifier(1);
+            p.setPriceElasticity(demandElasticity);
+            p.setOriginalPriceElasticity(demandElasticity);
+            p.setWeight(1);
+            p.setDirty(true);
+            p.setPriceVersion(-1);
+        }
+
+        // pick profession, the job, production and price elasticity of supply are shared by every agent in the job
+        String professionPick = MarketMain.randomWeightedPick(professionChoices, professionWeights, random);
+        MarketInfo professionMarketInfo = profileByGood.get(professionPick);
+        Profession profession = a.getProfession();
+        profession.setTemplate(professionTemplates.getOrDefault(professionPick, ProfessionTemplate.NONE));
+        profession.setSkillLevel(1);
+        profession.setShortRunProduction(1.0);
+        // the agent's own variance on the job's price elasticity of supply (standard deviation 2.5%)
+        //double supplyElasticityVariance = 1 + random.nextGaussian(0.0,0.025);
+        profession.setSupplyElasticityVariance(professionMarketInfo != null ?
+                1 + (0.025 * random.nextDouble()) : 1.0);
+        a.setMoney(professionMarketInfo != null ? professionMarketInfo.getGoodCost() : 0);
+        a.setSatisfaction(0);
+    }
+
+    public String toString() {
+        return ("Agent initializer, goods: " + profileByGood.size() + ", professions: " + professionChoices);
+    }
+}
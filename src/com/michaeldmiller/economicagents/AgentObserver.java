@@ -0,0 +1,70 @@
+package com.michaeldmiller.economicagents;
+
+// Hooks called by an Agent's setters before the change is made, so the old value is still in the agent, e.g. to keep
+// statistics up to date incrementally (see WealthStatistics). Called on whichever thread changes the agent.
+// An agent has one observer, Market.addAgentObserver chains a new one onto those already watching its agents.
+public interface AgentObserver {
+    // an observer passing every call on to first and then second, either may be null
+    static AgentObserver chain(AgentObserver first, AgentObserver second){
+        if (first == null || second == null){
+            return first == null ? second : first;
+        }
+        return new AgentObserver() {
+            public void agentAdded(Agent a){
+                first.agentAdded(a);
+                second.agentAdded(a);
+            }
+
+            public void moneyChanged(Agent a, double oldMoney, double newMoney){
+                first.moneyChanged(a, oldMoney, newMoney);
+                second.moneyChanged(a, oldMoney, newMoney);
+            }
+
+            public void satisfactionChanged(Agent a, double oldSatisfaction, double newSatisfaction){
+                first.satisfactionChanged(a, oldSatisfaction, newSatisfaction);
+                second.satisfactionChanged(a, oldSatisfaction, newSatisfaction);
+            }
+
+            public void countChanged(Agent a, int oldCount, int newCount){
+                first.countChanged(a, oldCount, newCount);
+                second.countChanged(a, oldCount, newCount);
+            }
+
+            public void professionChanged(Agent a, ProfessionTemplate newTemplate, double newSkillLevel,
+                                          double newShortRunProduction, double newSupplyElasticityVariance){
+                first.professionChanged(a, newTemplate, newSkillLevel, newShortRunProduction,
+                        newSupplyElasticityVariance);
+                second.professionChanged(a, newTemplate, newSkillLevel, newShortRunProduction,
+                        newSupplyElasticityVariance);
+            }
+
+            public void tickEnded(Market market){
+                first.tickEnded(market);
+                second.tickEnded(market);
+            }
+        };
+    }
+
+    // the agent has started being observed, with its current state
+    default void agentAdded(Agent a){
+    }
+
+    default void moneyChanged(Agent a, double oldMoney, double newMoney){
+    }
+
+    default void satisfactionChanged(Agent a, double oldSatisfaction, double newSatisfaction){
+    }
+
+    default void countChanged(Agent a, int oldCount, int newCount){
+    }
+
+    // the agent's profession is still the old one
+    default void professionChanged(Agent a, ProfessionTemplate newTemplate, double newSkillLevel,
+                                   double newShortRunProduction, double newSupplyElasticityVariance){
+    }
+
+    // the market finished a tick, on the thread running it with no agent phase in progress, e.g. to fold changes
+    // gathered on several threads during the tick
+    default void tickEnded(Market market){
+    }
+}
@@ -0,0 +1,186 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Decentralised trading between agents, after they have bought from the market. Every agent asks to sell what it
+// holds of each good beyond 5 ticks worth of consumption (the point past which its priority for the good starts
+// falling), and bids for the good it wants most (highest Priority weight) up to its unmet need plus 5 ticks worth,
+// as much as it can pay for. Prices are set around the market price, spread wide at most: the bigger the surplus
+// the cheaper the ask, and the bigger the good's share of the agent's priority weight the higher the bid.
+// Orders go into one OrderBook per good, and the books are matched in parallel since no order spans two goods. The
+// trades are settled with the agents afterwards, so matching never touches an agent.
+public class BilateralExchange {
+    private final double spread;
+    private int lastTrades;
+    private double lastVolume;
+    private double lastValue;
+    private HashMap<String, Double> lastPrices;
+
+    public BilateralExchange(double spread) {
+        this.spread = spread;
+        this.lastTrades = 0;
+        this.lastVolume = 0;
+        this.lastValue = 0;
+        this.lastPrices = new HashMap<String, Double>();
+    }
+
+    public double getSpread() {
+        return spread;
+    }
+
+    public int getLastTrades() {
+        return lastTrades;
+    }
+
+    public double getLastVolume() {
+        return lastVolume;
+    }
+
+    public double getLastValue() {
+        return lastValue;
+    }
+
+    // price of the last trade of each good traded in the latest run
+    public HashMap<String, Double> getLastPrices() {
+        return lastPrices;
+    }
+
+    public void run(Market m){
+        ArrayList<Agent> agents = m.getAgents();
+        // build the price index before the threads start looking prices up
+        for (Price p : m.getPrices()){
+            m.getPrice(p.getGood());
+        }
+
+        // each agent's orders
+        TradeOrder[][] agentOrders = new TradeOrder[agents.size()][];
+        MarketMain.forEachAgent(m, i -> {
+            if (agents.get(i).getCount() > 0){
+                agentOrders[i] = orders(i, agents.get(i), m);
+            }
+        });
+
+        // sorted into the goods' books
+        HashMap<String, ArrayList<TradeOrder>> bidsByGood = new HashMap<String, ArrayList<TradeOrder>>();
+        HashMap<String, ArrayList<TradeOrder>> asksByGood = new HashMap<String, ArrayList<TradeOrder>>();
+        for (TradeOrder[] orders : agentOrders){
+            if (orders == null){
+                continue;
+            }
+            for (TradeOrder order : orders){
+                (order.isBid() ? bidsByGood : asksByGood)
+                        .computeIfAbsent(order.getGood(), k -> new ArrayList<TradeOrder>()).add(order);
+            }
+        }
+        // a good needs both sides to trade
+        ArrayList<OrderBook> books = new ArrayList<OrderBook>();
+        for (String good : bidsByGood.keySet()){
+            if (asksByGood.containsKey(good)){
+                books.add(new OrderBook(good, bidsByGood.get(good), asksByGood.get(good)));
+            }
+        }
+        ForkJoinPool pool = m.getPool() == null ? ForkJoinPool.commonPool() : m.getPool();
+        pool.submit(() -> IntStream.range(0, books.size()).parallel().forEach(b -> books.get(b).match(m))).join();
+
+        for (TradeOrder[] orders : agentOrders){
+            if (orders == null){
+                continue;
+            }
+            for (TradeOrder order : orders){
+                if (order.getFilled() > 0){
+                    settle(order, agents.get(order.getAgentIndex()), m);
+                }
+            }
+        }
+
+        lastTrades = 0;
+        lastVolume = 0;
+        lastValue = 0;
+        lastPrices = new HashMap<String, Double>();
+        for (OrderBook book : books){
+            lastTrades += book.getTrades();
+            lastVolume += book.getVolume();
+            lastValue += book.getValue();
+            if (book.getTrades() > 0){
+                lastPrices.put(book.getGood(), book.getLastPrice());
+            }
+        }
+    }
+
+    // the agent's asks for every good it has a surplus of, and its bid for the good it wants most
+    private TradeOrder[] orders(int agentIndex, Agent a, Market m){
+        ArrayList<TradeOrder> orders = new ArrayList<TradeOrder>();
+        double totalWeight = 0;
+        Priority wanted = null;
+        double wantedQuantity = 0;
+        for (Priority p : a.getPriorities()){
+            Consumption c = a.getConsumption().get(p.getGood());
+            Price price = m.getPrice(p.getGood());
+            if (c == null || price == null || c.getTickConsumption() <= 0){
+                continue;
+            }
+            double saturation = 5 * c.getTickConsumption();
+            double held = a.getInventory().getOrDefault(p.getGood(), 0.0);
+            totalWeight += p.getWeight();
+            if (held > saturation){
+                double surplus = MarketMain.amountDown(m, held - saturation);
+                double askPrice = price.getCost() * (1 - (spread * Math.min(1, surplus / saturation)));
+                if (surplus > 0){
+                    orders.add(new TradeOrder(agentIndex, p.getGood(), false, askPrice, surplus * a.getCount()));
+                }
+            }
+            else if (wanted == null || p.getWeight() > wanted.getWeight()){
+                wanted = p;
+                wantedQuantity = c.getTotalUnmetNeed() + saturation - held;
+            }
+        }
+        if (wanted != null && wanted.getWeight() > 0){
+            double bidPrice = m.getPrice(wanted.getGood()).getCost()
+                    * (1 + (spread * (wanted.getWeight() / totalWeight)));
+            double quantity = bidPrice > 0 ? MarketMain.amountDown(m, Math.min(wantedQuantity,
+                    a.getMoney() / bidPrice)) : 0;
+            if (quantity > 0){
+                orders.add(new TradeOrder(agentIndex, wanted.getGood(), true, bidPrice, quantity * a.getCount()));
+            }
+        }
+        return orders.toArray(new TradeOrder[0]);
+    }
+
+    // apply a filled order to each member of the agent's cohort. Splitting a cohort's fill between its members
+    // rounds on a fixed point market, the market (as the clearing house) takes up the difference so no money or
+    // goods are created or lost
+    private void settle(TradeOrder order, Agent a, Market m){
+        int members = a.getCount();
+        String good = order.getGood();
+        if (order.isBid()){
+            double quantity = MarketMain.amountDown(m, order.getFilled() / members);
+            double payment = MarketMain.amount(m, order.getCash() / members);
+            MarketMain.applyPurchase(a, good, payment, quantity);
+            m.getInventory().put(good, m.getInventory().getOrDefault(good, 0.0)
+                    + (order.getFilled() - (quantity * members)));
+            m.setMoney(m.getMoney() + ((payment * members) - order.getCash()));
+        }
+        else {
+            double quantity = MarketMain.amountDown(m, order.getFilled() / members);
+            double proceeds = MarketMain.amount(m, order.getCash() / members);
+            a.getInventory().put(good, a.getInventory().get(good) - quantity);
+            a.setMoney(a.getMoney() + proceeds);
+            for (Priority p : a.getPriorities()){
+                if (p.getGood().equals(good)){
+                    p.setDirty(true);
+                }
+            }
+            m.getInventory().put(good, m.getInventory().getOrDefault(good, 0.0)
+                    - (order.getFilled() - (quantity * members)));
+            m.setMoney(m.getMoney() - ((proceeds * members) - order.getCash()));
+        }
+    }
+
+    public String toString() {
+        return ("Bilateral exchange, spread: " + this.getSpread() + ", last trades: " + this.getLastTrades() + ", " +
+                "volume: " + this.getLastVolume() + ", value: " + this.getLastValue());
+    }
+}
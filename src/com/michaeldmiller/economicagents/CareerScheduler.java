@@ -0,0 +1,171 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Event driven scheduler for career reconsideration. Rather than rolling the reconsideration chance for every agent
+// every tick, each agent samples the tick of its next reconsideration from a geometric distribution and waits in a
+// bucket keyed by that tick. Advancing a tick only touches the agents in that tick's bucket.
+// Since the gaps between successes of a per tick Bernoulli trial are geometric, this is statistically the same as
+// rolling the chance every tick. A cohort of n agents is due whenever any of its members would be, so it uses the
+// chance of at least one of n succeeding, and sampleReconsidering says how many of them it is. A cohort whose count
+// changes (merged or split) is rescheduled at its new count, which memorylessness makes exact; its old bucket entry
+// is left behind and skipped when its tick comes. Agents with a count of 0 (merged into another cohort, or dead) are
+// dropped.
+public class CareerScheduler {
+    private final double reconsiderChance;
+    // null uses the calling thread's generator
+    private final Random random;
+    private long currentTick;
+    private HashMap<Long, ArrayList<Agent>> buckets;
+    // tick each waiting agent is due, by identity. A bucket entry for any other tick is stale
+    private IdentityHashMap<Agent, Long> pending;
+
+    public CareerScheduler(double reconsiderChance) {
+        this(reconsiderChance, null);
+    }
+
+    public CareerScheduler(double reconsiderChance, Random random) {
+        this.reconsiderChance = reconsiderChance;
+        this.random = random;
+        this.currentTick = 0;
+        this.buckets = new HashMap<Long, ArrayList<Agent>>();
+        this.pending = new IdentityHashMap<Agent, Long>();
+    }
+
+    public double getReconsiderChance() {
+        return reconsiderChance;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    // number of ticks until the next reconsideration of an agent standing for the given number of members,
+    // always at least 1
+    public long sampleDelay(int members){
+        double chance = 1 - Math.pow(1 - reconsiderChance, Math.max(1, members));
+        if (chance >= 1){
+            return 1;
+        }
+        if (chance <= 0){
+            return Long.MAX_VALUE - currentTick;
+        }
+        return 1 + geometric(chance);
+    }
+
+    // failures before the first success of a Bernoulli trial with the given chance (in (0, 1))
+    private long geometric(double chance){
+        // inverse transform sampling, 1 - nextDouble() is in (0, 1] so the log is always defined
+        double uniform = 1 - nextDouble();
+        return (long) Math.floor(Math.log(uniform) / Math.log(1 - chance));
+    }
+
+    private double nextDouble(){
+        return (random != null ? random : ThreadLocalRandom.current()).nextDouble();
+    }
+
+    // number of a due cohort's members reconsidering, binomial in the cohort's count given that at least one is.
+    // The first to reconsider is drawn from the geometric distribution cut off at the count, the rest by skipping
+    // ahead geometric gaps, so it costs O(reconsidering). A single agent draws nothing
+    public int sampleReconsidering(int members){
+        if (members <= 1 || reconsiderChance >= 1){
+            return Math.max(1, members);
+        }
+        if (reconsiderChance <= 0){
+            return 1;
+        }
+        double logFailure = Math.log(1 - reconsiderChance);
+        double allFail = Math.pow(1 - reconsiderChance, members);
+        // member (1 based) of the first success, given there is one in the cohort
+        long position = Math.max(1, Math.min(members,
+                (long) Math.ceil(Math.log(1 - (nextDouble() * (1 - allFail))) / logFailure)));
+        int reconsidering = 1;
+        while (position < members){
+            position += 1 + geometric(reconsiderChance);
+            if (position <= members){
+                reconsidering++;
+            }
+        }
+        return reconsidering;
+    }
+
+    // schedule the agent's next reconsideration at its current count, replacing any it was waiting for
+    public void schedule(Agent agent){
+        long tick = currentTick + sampleDelay(agent.getCount());
+        ArrayList<Agent> bucket = buckets.get(tick);
+        if (bucket == null){
+            bucket = new ArrayList<Agent>();
+            buckets.put(tick, bucket);
+        }
+        bucket.add(agent);
+        pending.put(agent, tick);
+    }
+
+    // redraw a waiting agent's next reconsideration after its count changed, or drop it if it is now empty
+    public void reschedule(Agent agent){
+        if (agent.getCount() > 0){
+            schedule(agent);
+        }
+        else {
+            pending.remove(agent);
+        }
+    }
+
+    // whether the agent is waiting for a reconsideration. An agent dropped while empty (count 0) isn't, and has to be
+    // scheduled again if its slot is reused
+    public boolean isScheduled(Agent agent){
+        return pending.containsKey(agent);
+    }
+
+    public void scheduleAll(ArrayList<Agent> agents){
+        for (Agent a : agents){
+            schedule(a);
+        }
+    }
+
+    // move to the next tick and return the agents reconsidering their career during it, rescheduling each of them
+    public ArrayList<Agent> advance(){
+        return advance(1);
+    }
+
+    // move forward the given number of ticks and return every reconsideration due in them, in tick order. An agent
+    // rescheduled within the window is due again and appears once per reconsideration
+    public ArrayList<Agent> advance(int ticks){
+        ArrayList<Agent> reconsidering = new ArrayList<Agent>();
+        for (int t = 0; t < ticks; t++){
+            currentTick++;
+            ArrayList<Agent> due = buckets.remove(currentTick);
+            if (due == null){
+                continue;
+            }
+            for (Agent a : due){
+                Long tick = pending.get(a);
+                if (tick == null || tick != currentTick){
+                    // rescheduled since, or dropped
+                    continue;
+                }
+                pending.remove(a);
+                if (a.getCount() > 0){
+                    schedule(a);
+                    reconsidering.add(a);
+                }
+            }
+        }
+        return reconsidering;
+    }
+
+    // number of agents waiting
+    public int size(){
+        return pending.size();
+    }
+
+    public String toString() {
+        return ("Career scheduler at tick " + this.getCurrentTick() + ", " +
+                "reconsider chance: " + this.getReconsiderChance() + ", " +
+                "pending buckets: " + buckets.size());
+    }
+}
@@ -0,0 +1,228 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Cohort compression: agents whose state is identical (or equal once rounded to a quantum) are merged into one
+// Agent record with a count, and the phases scale that record's effect on the market by its count. When members of
+// a cohort make different choices (different purchases, one of them switching careers) they are split off into
+// their own cohorts, and compress merges cohorts back together once their states meet again.
+public class Cohorts {
+
+    // merge agents with matching state, returning the number of records left. Merged records take the count
+    // weighted average of money, satisfaction, inventory and unmet need, so none of them is created or lost
+    // (on fixed point what the average can't hold goes to the market). Cohorts that grew are rescheduled for career
+    // reconsideration at their new count. With a quantum of 0 only exactly equal agents are merged
+    public static int compress(Market market, double quantum){
+        LinkedHashMap<String, Agent> cohorts = new LinkedHashMap<String, Agent>();
+        Set<Agent> grown = Collections.newSetFromMap(new IdentityHashMap<Agent, Boolean>());
+        for (Agent a : market.getAgents()){
+            if (a.getCount() <= 0){
+                continue;
+            }
+            String key = stateKey(a, quantum);
+            Agent cohort = cohorts.get(key);
+            if (cohort == null){
+                cohorts.put(key, a);
+            }
+            else {
+                merge(cohort, a, market);
+                grown.add(cohort);
+            }
+        }
+        if (market.getCareerScheduler() != null){
+            for (Agent cohort : grown){
+                market.getCareerScheduler().reschedule(cohort);
+            }
+        }
+        market.setAgents(new ArrayList<Agent>(cohorts.values()));
+        // the empty slots are gone, and with them the free list's indices
+        if (market.getDemographics() != null){
+            market.getDemographics().clearFreeSlots();
+        }
+        return cohorts.size();
+    }
+
+    // total number of agents the market's records stand for
+    public static int population(Market market){
+        int total = 0;
+        for (Agent a : market.getAgents()){
+            total += a.getCount();
+        }
+        return total;
+    }
+
+    private static String stateKey(Agent a, double quantum){
+        StringBuilder key = new StringBuilder();
+        Profession profession = a.getProfession();
+        key.append(profession.getJob()).append('|');
+        appendValue(key, profession.getSkillLevel(), quantum);
+        appendValue(key, profession.getBaseProduction(), quantum);
+        appendValue(key, profession.getPriceElasticityOfSupply(), quantum);
+        appendValue(key, a.getMoney(), quantum);
+        appendValue(key, a.getSatisfaction(), quantum);
+        // agents in different places trade with different markets
+        appendValue(key, a.getX(), 0);
+        appendValue(key, a.getY(), 0);
+        for (Priority p : a.getPriorities()){
+            key.append(p.getGood()).append('|');
+            appendValue(key, a.getInventory().get(p.getGood()), quantum);
+            Consumption c = a.getConsumption().get(p.getGood());
+            appendValue(key, c.getTickConsumption(), quantum);
+            appendValue(key, c.getTotalUnmetNeed(), quantum);
+            appendValue(key, p.getBaseWeight(), quantum);
+            appendValue(key, p.getModifier(), quantum);
+            appendValue(key, p.getOriginalPriceElasticity(), quantum);
+        }
+        return key.toString();
+    }
+
+    private static void appendValue(StringBuilder key, double value, double quantum){
+        if (quantum > 0){
+            key.append(Math.round(value / quantum));
+        }
+        else {
+            key.append(Double.doubleToLongBits(value));
+        }
+        key.append('|');
+    }
+
+    // fold the other agent into the cohort, the other agent is left with a count of 0
+    private static void merge(Agent cohort, Agent other, Market market){
+        double cohortWeight = cohort.getCount();
+        double otherWeight = other.getCount();
+        double total = cohortWeight + otherWeight;
+        double totalMoney = (cohort.getMoney() * cohortWeight) + (other.getMoney() * otherWeight);
+        double money = totalMoney / total;
+        if (market.isFixedPoint()){
+            money = MarketMain.amountDown(market, money);
+            market.setMoney(market.getMoney() + (totalMoney - (money * total)));
+        }
+        cohort.setMoney(money);
+        cohort.setSatisfaction(((cohort.getSatisfaction() * cohortWeight)
+                + (other.getSatisfaction() * otherWeight)) / total);
+        for (Map.Entry<String, Double> good : cohort.getInventory().entrySet()){
+            double otherAmount = other.getInventory().getOrDefault(good.getKey(), 0.0);
+            good.setValue(((good.getValue() * cohortWeight) + (otherAmount * otherWeight)) / total);
+        }
+        for (Map.Entry<String, Consumption> good : cohort.getConsumption().entrySet()){
+            Consumption otherConsumption = other.getConsumption().get(good.getKey());
+            double otherUnmet = otherConsumption == null ? 0 : otherConsumption.getTotalUnmetNeed();
+            good.getValue().setTotalUnmetNeed(((good.getValue().getTotalUnmetNeed() * cohortWeight)
+                    + (otherUnmet * otherWeight)) / total);
+        }
+        for (Priority p : cohort.getPriorities()){
+            p.setDirty(true);
+        }
+        cohort.setCount(cohort.getCount() + other.getCount());
+        other.setCount(0);
+    }
+
+    // separate members from a cohort into a new record with the same state
+    public static Agent split(Agent cohort, int members){
+        Agent copy = copy(cohort, cohort.getId() + "-" + cohort.getCount());
+        // the copy joins whatever observes the cohort, then the members move over
+        copy.setObserver(cohort.getObserver());
+        if (cohort.getObserver() != null){
+            cohort.getObserver().agentAdded(copy);
+        }
+        copy.setCount(members);
+        cohort.setCount(cohort.getCount() - members);
+        return copy;
+    }
+
+    public static Agent copy(Agent a, String id){
+        HashMap<String, Double> inventory = new HashMap<String, Double>(a.getInventory());
+        ArrayList<Priority> priorities = new ArrayList<Priority>();
+        for (Priority p : a.getPriorities()){
+            Priority priority = new Priority(p.getGood(), p.getBaseWeight(), p.getRelativeNeed(), p.getModifier(),
+                    p.getPriceElasticity(), p.getOriginalPriceElasticity(), p.getWeight());
+            priority.setDirty(p.isDirty());
+            priority.setPriceVersion(p.getPriceVersion());
+            priorities.add(priority);
+        }
+        HashMap<String, Consumption> consumption = new HashMap<String, Consumption>();
+        for (Map.Entry<String, Consumption> c : a.getConsumption().entrySet()){
+            consumption.put(c.getKey(), new Consumption(c.getValue().getTickConsumption(),
+                    c.getValue().getTotalUnmetNeed(), new ArrayList<UnmetConsumption>(c.getValue().getUnmetNeeds())));
+        }
+        Profession profession = new Profession(a.getProfession().getTemplate(), a.getProfession().getSkillLevel(),
+                a.getProfession().getShortRunProduction(), a.getProfession().getSupplyElasticityVariance());
+        Agent copy = new Agent(id, inventory, priorities, consumption, profession, a.getMoney(), a.getSatisfaction());
+        copy.setCount(a.getCount());
+        copy.setX(a.getX());
+        copy.setY(a.getY());
+        return copy;
+    }
+
+    // add split off cohorts to the market, scheduling their career reconsideration
+    public static void addAgents(Market market, ArrayList<Agent> newAgents){
+        market.getAgents().addAll(newAgents);
+        if (market.getCareerScheduler() != null){
+            for (Agent a : newAgents){
+                market.getCareerScheduler().schedule(a);
+            }
+        }
+    }
+
+    // agentPurchase for a cohort. Each member makes its own choice against the live market, in turn, so later
+    // members see what earlier ones bought. Members that made the same purchase stay together: the cohort keeps
+    // the most common outcome and every other outcome is split off. Returns the split off cohorts
+    public static ArrayList<Agent> purchase(Agent cohort, Market m, MarketSnapshot prices){
+        LinkedHashMap<String, Integer> outcomeCounts = new LinkedHashMap<String, Integer>();
+        HashMap<String, PurchaseOrder> outcomeOrders = new HashMap<String, PurchaseOrder>();
+        HashMap<String, Double> outcomePayments = new HashMap<String, Double>();
+        SatisfactionPenalties penalties = new SatisfactionPenalties(1);
+        for (int member = 0; member < cohort.getCount(); member++){
+            PurchaseOrder order = MarketMain.decidePurchase(0, cohort, prices,
+                    good -> m.getInventory().getOrDefault(good, 0.0), penalties, m.isFixedPoint(),
+                    MarketMain.random(m));
+            String outcome = "";
+            if (order != null){
+                double payment = MarketMain.amount(m, order.getPrice() * order.getQuantity());
+                m.getInventory().put(order.getGood(), m.getInventory().get(order.getGood()) - order.getQuantity());
+                m.setMoney(m.getMoney() + payment);
+                outcome = order.getGood() + "|" + order.getQuantity() + "|" + payment;
+                outcomeOrders.put(outcome, order);
+                outcomePayments.put(outcome, payment);
+            }
+            outcomeCounts.merge(outcome, 1, Integer::sum);
+        }
+        penalties.apply(m.getAgents());
+
+        String kept = "";
+        int keptCount = -1;
+        for (Map.Entry<String, Integer> outcome : outcomeCounts.entrySet()){
+            if (outcome.getValue() > keptCount){
+                kept = outcome.getKey();
+                keptCount = outcome.getValue();
+            }
+        }
+        ArrayList<Agent> splits = new ArrayList<Agent>();
+        for (Map.Entry<String, Integer> outcome : outcomeCounts.entrySet()){
+            if (outcome.getKey().equals(kept)){
+                continue;
+            }
+            Agent split = split(cohort, outcome.getValue());
+            applyOutcome(split, outcomeOrders.get(outcome.getKey()), outcomePayments.get(outcome.getKey()));
+            splits.add(split);
+        }
+        // the cohort shrank, its next career reconsideration is further off
+        if (!splits.isEmpty() && m.getCareerScheduler() != null){
+            m.getCareerScheduler().reschedule(cohort);
+        }
+        applyOutcome(cohort, outcomeOrders.get(kept), outcomePayments.get(kept));
+        return splits;
+    }
+
+    private static void applyOutcome(Agent a, PurchaseOrder order, Double payment){
+        if (order != null){
+            MarketMain.applyPurchase(a, order.getGood(), payment, order.getQuantity());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread safe working copy of a Market's inventory and treasury for phases that run agents concurrently.
+// Each good's quantity is a double stored as its raw bits in an AtomicLong and changed with compare and set loops,
+// so reading a quantity and taking from it happen as one atomic step and the inventory can never be overdrawn.
+// The treasury is a striped DoubleAdder, since it is only ever added to while agents run.
+// On a fixed point market the longs hold FixedPoint values instead, additions become a single getAndAdd and the
+// treasury a LongAdder, which makes the results exact whatever order the threads get to them in.
+// The set of goods is fixed when the copy is made; store writes the results back to the market.
+public class ConcurrentInventory {
+    private final boolean fixedPoint;
+    private final HashMap<String, AtomicLong> quantities;
+    private final DoubleAdder money;
+    private final LongAdder fixedMoney;
+
+    public ConcurrentInventory(Market market) {
+        this.fixedPoint = market.isFixedPoint();
+        this.quantities = new HashMap<String, AtomicLong>();
+        for (Map.Entry<String, Double> good : market.getInventory().entrySet()){
+            quantities.put(good.getKey(), new AtomicLong(encode(good.getValue())));
+        }
+        this.money = new DoubleAdder();
+        this.fixedMoney = new LongAdder();
+        addMoney(market.getMoney());
+    }
+
+    private long encode(double value) {
+        return fixedPoint ? FixedPoint.toFixed(value) : Double.doubleToRawLongBits(value);
+    }
+
+    private double decode(long value) {
+        return fixedPoint ? FixedPoint.toDouble(value) : Double.longBitsToDouble(value);
+    }
+
+    public boolean contains(String good) {
+        return quantities.containsKey(good);
+    }
+
+    public double get(String good) {
+        AtomicLong quantity = quantities.get(good);
+        return quantity == null ? 0 : decode(quantity.get());
+    }
+
+    public void add(String good, double amount) {
+        AtomicLong quantity = quantities.get(good);
+        if (fixedPoint){
+            quantity.getAndAdd(FixedPoint.toFixed(amount));
+            return;
+        }
+        long current;
+        do {
+            current = quantity.get();
+        } while (!quantity.compareAndSet(current,
+                Double.doubleToRawLongBits(Double.longBitsToDouble(current) + amount)));
+    }
+
+    // atomically take the requested amount, or whatever is left if that is less. Nothing is taken if less than
+    // minimum is left. Returns the amount taken
+    public double takeUpTo(String good, double requested, double minimum) {
+        AtomicLong quantity = quantities.get(good);
+        if (quantity == null){
+            return 0;
+        }
+        while (true){
+            long current = quantity.get();
+            double available = decode(current);
+            if (available < minimum || available <= 0){
+                return 0;
+            }
+            double taken = Math.min(requested, available);
+            if (fixedPoint){
+                taken = FixedPoint.quantizeDown(taken);
+            }
+            if (quantity.compareAndSet(current, encode(available - taken))){
+                return taken;
+            }
+        }
+    }
+
+    public double getMoney() {
+        return fixedPoint ? FixedPoint.toDouble(fixedMoney.sum()) : money.sum();
+    }
+
+    public void addMoney(double amount) {
+        if (fixedPoint){
+            fixedMoney.add(FixedPoint.toFixed(amount));
+        }
+        else {
+            money.add(amount);
+        }
+    }
+
+    // write inventory and treasury back to the market, once no agents are running
+    public void store(Market market) {
+        for (Map.Entry<String, AtomicLong> good : quantities.entrySet()){
+            market.getInventory().put(good.getKey(), decode(good.getValue().get()));
+        }
+        market.setMoney(getMoney());
+    }
+
+    public String toString() {
+        HashMap<String, Double> inventory = new HashMap<String, Double>();
+        for (String good : quantities.keySet()){
+            inventory.put(good, get(good));
+        }
+        return ("Concurrent inventory: " + inventory + ", money: " + this.getMoney());
+    }
+}
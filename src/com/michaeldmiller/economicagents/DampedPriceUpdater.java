@@ -0,0 +1,35 @@
+package com.michaeldmiller.economicagents;
+
+// Damped tatonnement: each tick prices move a fixed fraction of the way toward equilibrium. With linear curves the
+// excess demand divided by the difference in slopes is exactly the distance to equilibrium, so this is a
+// tatonnement step normalised per good. A damping of 1 is instantaneous equilibrium; smaller values smooth out the
+// oscillations caused by agents overreacting to large price jumps.
+public class DampedPriceUpdater implements PriceUpdater {
+    private final double damping;
+
+    public DampedPriceUpdater(double damping) {
+        this.damping = damping;
+    }
+
+    public double getDamping() {
+        return damping;
+    }
+
+    public void updatePrices(Market market, PriceAggregates aggregates) {
+        for (Price c : market.getPrices()){
+            c.setCost(c.getCost() + (damping * (c.getEquilibriumCost() - c.getCost())));
+        }
+    }
+
+    // ticks steps toward a fixed equilibrium compound, leaving (1 - damping)^ticks of the distance
+    public void updatePrices(Market market, PriceAggregates aggregates, int ticks) {
+        double fraction = 1 - Math.pow(1 - damping, ticks);
+        for (Price c : market.getPrices()){
+            c.setCost(c.getCost() + (fraction * (c.getEquilibriumCost() - c.getCost())));
+        }
+    }
+
+    public String toString() {
+        return "Damped prices, damping: " + this.getDamping();
+    }
+}
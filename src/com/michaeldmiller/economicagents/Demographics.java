@@ -0,0 +1,171 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+// Births and deaths. An agent dies once its unmet need of any good reaches starvationTicks worth of its consumption,
+// and new agents are born at birthRate per living agent per tick, picking a profession by job chance like makeAgents.
+// Agent records are never removed from the middle of the agent list: a dead agent's slot is emptied (count 0, which
+// every phase skips) and pushed on a free list, and a birth pops a slot and reinitialises that Agent in place, so
+// churn is O(1) per agent and allocates nothing once the list has reached its peak size.
+// A dead agent's money and inventory go to the market, and each newborn's starting money comes out of the market's,
+// so total money is conserved. Cohort compression drops empty slots itself, which empties the free list.
+public class Demographics {
+    private final double starvationTicks;
+    private final double birthRate;
+    // stack of empty slots in the agent list
+    private int[] freeSlots;
+    private int freeCount;
+    private long nextId;
+    private long births;
+    private long deaths;
+
+    public Demographics(double starvationTicks, double birthRate) {
+        this.starvationTicks = starvationTicks;
+        this.birthRate = birthRate;
+        this.freeSlots = new int[16];
+        this.freeCount = 0;
+        this.nextId = -1;
+        this.births = 0;
+        this.deaths = 0;
+    }
+
+    public double getStarvationTicks() {
+        return starvationTicks;
+    }
+
+    public double getBirthRate() {
+        return birthRate;
+    }
+
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    public long getBirths() {
+        return births;
+    }
+
+    public long getDeaths() {
+        return deaths;
+    }
+
+    // forget the free slots, for when the agent list is rebuilt without its empty slots
+    public void clearFreeSlots(){
+        freeCount = 0;
+    }
+
+    // one tick of deaths then births
+    public void run(Market market){
+        ArrayList<Agent> agents = market.getAgents();
+        if (nextId < 0){
+            nextId = agents.size() + 1;
+        }
+        int living = 0;
+        for (int i = 0; i < agents.size(); i++){
+            Agent a = agents.get(i);
+            if (a.getCount() <= 0){
+                continue;
+            }
+            if (starving(a)){
+                die(market, i);
+            }
+            else {
+                living += a.getCount();
+            }
+        }
+
+        // expected births rounded randomly, so fractional rates still add up over many ticks
+        Random random = MarketMain.random(market);
+        double expected = birthRate * living;
+        int newborns = (int) expected + (random.nextDouble() < (expected - (int) expected) ? 1 : 0);
+        for (int b = 0; b < newborns; b++){
+            born(market, random);
+        }
+    }
+
+    private boolean starving(Agent a){
+        for (Consumption c : a.getConsumption().values()){
+            if (c.getTotalUnmetNeed() >= starvationTicks * c.getTickConsumption()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // empty the slot, passing the agent's estate to the market (every member of a cohort dies together)
+    public void die(Market market, int slot){
+        Agent a = market.getAgents().get(slot);
+        int members = a.getCount();
+        market.setMoney(market.getMoney() + (a.getMoney() * members));
+        a.setMoney(0);
+        for (String good : a.getInventory().keySet()){
+            if (market.getInventory().containsKey(good)){
+                market.getInventory().put(good,
+                        market.getInventory().get(good) + (a.getInventory().get(good) * members));
+            }
+            a.getInventory().put(good, 0.0);
+        }
+        a.setCount(0);
+        deaths += members;
+
+        if (freeCount == freeSlots.length){
+            int[] grown = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount] = slot;
+        freeCount++;
+    }
+
+    // add a new agent, reusing an empty slot if there is one
+    public Agent born(Market market, Random random){
+        ArrayList<MarketInfo> marketProfile = market.getMarketProfile();
+        Agent a;
+        // slots can only have been freed by die, but make sure nothing has refilled one since
+        while (freeCount > 0 && market.getAgents().get(freeSlots[freeCount - 1]).getCount() > 0){
+            freeCount--;
+        }
+        if (freeCount > 0){
+            freeCount--;
+            a = market.getAgents().get(freeSlots[freeCount]);
+            reinitialize(a, market, random);
+        }
+        else {
+            a = MarketMain.makeAgents(marketProfile, 1, random, market.getBasketSize(),
+                    market.getProfessionTemplates()).get(0);
+            // born in the market's town, a reused slot keeps the place of the agent that died
+            a.setX(market.getX());
+            a.setY(market.getY());
+            a.setObserver(market.getAgentObserver());
+            if (market.getAgentObserver() != null){
+                market.getAgentObserver().agentAdded(a);
+            }
+            market.getAgents().add(a);
+        }
+        a.setId(Long.toString(nextId));
+        nextId++;
+        market.setMoney(market.getMoney() - (a.getMoney() * a.getCount()));
+        births++;
+
+        CareerScheduler scheduler = market.getCareerScheduler();
+        if (scheduler != null && !scheduler.isScheduled(a)){
+            scheduler.schedule(a);
+        }
+        return a;
+    }
+
+    // the same starting state makeAgents gives a new agent, written into an existing Agent's objects (see
+    // AgentInitializer). The agent keeps the basket of goods it had. The slot is empty (count 0), so nothing observing
+    // it has to hear about the changes until its count goes back to 1
+    public static void reinitialize(Agent a, Market market, Random random){
+        market.getAgentInitializer().initialize(a, random);
+        a.setCount(1);
+    }
+
+    public String toString() {
+        return ("Demographics, starvation ticks: " + this.getStarvationTicks() + ", " +
+                "birth rate: " + this.getBirthRate() + ", births: " + this.getBirths() + ", " +
+                "deaths: " + this.getDeaths() + ", free slots: " + this.getFreeCount());
+    }
+}
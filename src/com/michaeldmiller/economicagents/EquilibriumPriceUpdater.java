@@ -0,0 +1,19 @@
+package com.michaeldmiller.economicagents;
+
+// Instantaneous equilibrium: every price jumps straight to its equilibrium cost each tick
+public class EquilibriumPriceUpdater implements PriceUpdater {
+    public void updatePrices(Market market, PriceAggregates aggregates) {
+        for (Price c : market.getPrices()){
+            c.setCost(c.getEquilibriumCost());
+        }
+    }
+
+    // jumping to equilibrium again changes nothing, so skipped ticks need no catching up
+    public void updatePrices(Market market, PriceAggregates aggregates, int ticks) {
+        updatePrices(market, aggregates);
+    }
+
+    public String toString() {
+        return "Instantaneous equilibrium prices";
+    }
+}
@@ -0,0 +1,50 @@
+package com.michaeldmiller.economicagents;
+
+// Fixed point representation of money and quantities: a value is a whole number of units of 2^-FRACTION_BITS.
+// Sums of values on this grid are exact, both as scaled longs and as doubles up to MAXIMUM in magnitude, so adding
+// them up in any order or on any number of threads gives bit for bit the same result.
+// A market uses it after MarketMain.useFixedPoint, which rounds every transferred amount to the grid. Past MAXIMUM a
+// double can no longer hold every grid value, so rounding a value that big throws an ArithmeticException rather
+// than silently losing exactness. useFixedPoint checks the market's total money against it up front: money is only
+// moved around, so no balance can grow past the total.
+public class FixedPoint {
+    public static final int FRACTION_BITS = 20;
+    public static final double SCALE = 1L << FRACTION_BITS;
+    // 2^33, a double's 53 bits of mantissa less the fraction bits
+    public static final double MAXIMUM = 1L << (53 - FRACTION_BITS);
+
+    public static long toFixed(double value){
+        checkRange(value);
+        return Math.round(value * SCALE);
+    }
+
+    public static void checkRange(double value){
+        if (Math.abs(value) > MAXIMUM){
+            throw new ArithmeticException("Fixed point value out of exact range (" + MAXIMUM + "): " + value);
+        }
+    }
+
+    public static double toDouble(long fixed){
+        return fixed / SCALE;
+    }
+
+    // nearest value on the grid
+    public static double quantize(double value){
+        return toDouble(toFixed(value));
+    }
+
+    // largest value on the grid not above the value, for quantities that must not exceed a limit
+    public static double quantizeDown(double value){
+        checkRange(value);
+        return Math.floor(value * SCALE) / SCALE;
+    }
+
+    // exact sum of the values, each rounded to the grid
+    public static long sum(double[] values){
+        long total = 0;
+        for (double value : values){
+            total += toFixed(value);
+        }
+        return total;
+    }
+}
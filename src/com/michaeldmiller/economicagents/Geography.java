@@ -0,0 +1,394 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// Local markets on a 2D map. Every agent lives in the market nearest to where it was placed, and produces, consumes,
+// counts towards prices and changes career there, but each tick it shops at one of the markets within reach, nearer
+// ones being more likely. Every price is marked up by transportCost per unit of distance travelled (as a fraction of
+// the price), paid to the market selling the good.
+// Markets are indexed in a uniform grid of cells reach wide, so the markets within reach of an agent are all in the
+// 3 x 3 cells around it and finding them is O(1) however many markets there are. Every phase but purchasing only
+// touches its own market, so the markets tick in parallel; purchases are decided against a snapshot of each market
+// taken after production and over ordered goods are rationed per market, like runMarketBuffered.
+// Markets tick through the standard phase order here, their own tick mode settings (buffered, concurrent, fused,
+// pipeline) are not used.
+public class Geography {
+    private final double width;
+    private final double height;
+    private final double reach;
+    private final double transportCost;
+    private final ArrayList<Market> markets;
+    // grid index of the market positions, cell (column, row) at cells[row * columns + column]
+    private double[] marketX;
+    private double[] marketY;
+    private int columns;
+    private int rows;
+    private int[][] cells;
+    // pool the markets tick on, null uses the common pool
+    private ForkJoinPool pool;
+    private int tick;
+
+    public Geography(double width, double height, double reach, double transportCost) {
+        this.width = width;
+        this.height = height;
+        this.reach = reach;
+        this.transportCost = transportCost;
+        this.markets = new ArrayList<Market>();
+        this.cells = null;
+        this.pool = null;
+        this.tick = 0;
+    }
+
+    // numberOfMarkets markets and numberOfAgents agents at random places on a width x height map, each agent in the
+    // market nearest to it. Each market gets its own random number generator seeded from random
+    public static Geography build(ArrayList<MarketInfo> marketProfile, int numberOfMarkets, int numberOfAgents,
+                                  double width, double height, double reach, double transportCost, Random random){
+        Geography geography = new Geography(width, height, reach, transportCost);
+        double[] xs = new double[numberOfMarkets];
+        double[] ys = new double[numberOfMarkets];
+        for (int i = 0; i < numberOfMarkets; i++){
+            xs[i] = random.nextDouble() * width;
+            ys[i] = random.nextDouble() * height;
+        }
+        geography.index(xs, ys);
+
+        ArrayList<ArrayList<Agent>> residents = new ArrayList<ArrayList<Agent>>();
+        for (int i = 0; i < numberOfMarkets; i++){
+            residents.add(new ArrayList<Agent>());
+        }
+        // every market shares the templates the agents were made with
+        LinkedHashMap<String, ProfessionTemplate> professionTemplates = ProfessionTemplate.fromProfile(marketProfile);
+        for (Agent a : MarketMain.makeAgents(marketProfile, numberOfAgents, random, 0, professionTemplates)){
+            a.setX(random.nextDouble() * width);
+            a.setY(random.nextDouble() * height);
+            residents.get(geography.nearest(a.getX(), a.getY())).add(a);
+        }
+        for (int i = 0; i < numberOfMarkets; i++){
+            Market market = MarketMain.makeMarket(marketProfile, residents.get(i), new Random(random.nextLong()));
+            market.setProfessionTemplates(professionTemplates);
+            geography.addMarket(market, xs[i], ys[i]);
+        }
+        return geography;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getReach() {
+        return reach;
+    }
+
+    public double getTransportCost() {
+        return transportCost;
+    }
+
+    public ArrayList<Market> getMarkets() {
+        return markets;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public void setPool(ForkJoinPool newPool) {
+        pool = newPool;
+    }
+
+    public void addMarket(Market market, double x, double y){
+        market.setX(x);
+        market.setY(y);
+        markets.add(market);
+        cells = null;
+    }
+
+    // (re)build the grid from the markets' positions
+    private void index(){
+        double[] xs = new double[markets.size()];
+        double[] ys = new double[markets.size()];
+        for (int i = 0; i < markets.size(); i++){
+            xs[i] = markets.get(i).getX();
+            ys[i] = markets.get(i).getY();
+        }
+        index(xs, ys);
+    }
+
+    private void index(double[] xs, double[] ys){
+        marketX = xs;
+        marketY = ys;
+        columns = Math.max(1, (int) Math.ceil(width / reach));
+        rows = Math.max(1, (int) Math.ceil(height / reach));
+        int[] cellCounts = new int[columns * rows];
+        for (int i = 0; i < xs.length; i++){
+            cellCounts[cell(xs[i], ys[i])]++;
+        }
+        cells = new int[columns * rows][];
+        for (int c = 0; c < cells.length; c++){
+            cells[c] = new int[cellCounts[c]];
+            cellCounts[c] = 0;
+        }
+        for (int i = 0; i < xs.length; i++){
+            int c = cell(xs[i], ys[i]);
+            cells[c][cellCounts[c]] = i;
+            cellCounts[c]++;
+        }
+    }
+
+    private int column(double x){
+        return Math.min(columns - 1, Math.max(0, (int) (x / reach)));
+    }
+
+    private int row(double y){
+        return Math.min(rows - 1, Math.max(0, (int) (y / reach)));
+    }
+
+    private int cell(double x, double y){
+        return (row(y) * columns) + column(x);
+    }
+
+    public double distance(Agent a, int market){
+        if (cells == null){
+            index();
+        }
+        return Math.hypot(a.getX() - marketX[market], a.getY() - marketY[market]);
+    }
+
+    // index of the market nearest to (x, y), searching rings of cells outwards until no nearer market can be left
+    public int nearest(double x, double y){
+        if (cells == null){
+            index();
+        }
+        int column = column(x);
+        int row = row(y);
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        int maxRing = Math.max(columns, rows);
+        for (int ring = 0; ring <= maxRing; ring++){
+            for (int r = row - ring; r <= row + ring; r++){
+                if (r < 0 || r >= rows){
+                    continue;
+                }
+                // whole rows at the top and bottom of the ring, only the two ends of the rows in between
+                int step = (r == row - ring || r == row + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int c = column - ring; c <= column + ring; c += step){
+                    if (c < 0 || c >= columns){
+                        continue;
+                    }
+                    for (int i : cells[(r * columns) + c]){
+                        double d = Math.hypot(x - marketX[i], y - marketY[i]);
+                        if (d < bestDistance || (d == bestDistance && i < best)){
+                            best = i;
+                            bestDistance = d;
+                        }
+                    }
+                }
+            }
+            // anything in the next ring is at least ring cells away
+            if (best >= 0 && bestDistance <= ring * reach){
+                break;
+            }
+        }
+        return best;
+    }
+
+    // indices of the markets within reach of (x, y), in the 3 x 3 cells around it. Written into found, which must
+    // have room for every market, returns how many there are
+    public int withinReach(double x, double y, int[] found){
+        if (cells == null){
+            index();
+        }
+        int column = column(x);
+        int row = row(y);
+        int count = 0;
+        for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++){
+            for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++){
+                for (int i : cells[(r * columns) + c]){
+                    if (Math.hypot(x - marketX[i], y - marketY[i]) <= reach){
+                        found[count] = i;
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // the market the agent shops at this tick: one within reach, or its home market, weighted by 1 / markup so
+    // nearer markets are more likely
+    private int pickMarket(Agent a, int home, int[] found, Random random){
+        int count = withinReach(a.getX(), a.getY(), found);
+        boolean homeFound = false;
+        for (int k = 0; k < count; k++){
+            homeFound = homeFound || found[k] == home;
+        }
+        if (!homeFound){
+            found[count] = home;
+            count++;
+        }
+        if (count == 1){
+            return found[0];
+        }
+        double totalWeight = 0;
+        for (int k = 0; k < count; k++){
+            totalWeight += 1 / (1 + (transportCost * distance(a, found[k])));
+        }
+        double selection = random.nextDouble() * totalWeight;
+        for (int k = 0; k < count; k++){
+            selection -= 1 / (1 + (transportCost * distance(a, found[k])));
+            if (selection < 0){
+                return found[k];
+            }
+        }
+        return found[count - 1];
+    }
+
+    private void forEachMarket(IntConsumer body){
+        ForkJoinPool marketPool = pool == null ? ForkJoinPool.commonPool() : pool;
+        marketPool.submit(() -> IntStream.range(0, markets.size()).parallel().forEach(body)).join();
+    }
+
+    // one tick of every market
+    public void step(){
+        if (cells == null || marketX.length != markets.size()){
+            index();
+        }
+        int numberOfMarkets = markets.size();
+
+        // the phases before purchasing, each market on its own
+        MarketSnapshot[] snapshots = new MarketSnapshot[numberOfMarkets];
+        forEachMarket(i -> {
+            Market m = markets.get(i);
+            if (m.getPhaseSchedule() != null){
+                m.getPhaseSchedule().advance();
+            }
+            MarketMain.scheduledProductionSatisfaction(m);
+            MarketMain.marketProduce(m);
+            MarketMain.marketConsume(m);
+            MarketMain.marketPriorities(m);
+            snapshots[i] = new MarketSnapshot(m);
+        });
+
+        // every agent picks a market and decides what to buy there, against the snapshot
+        PurchaseOrder[][] orders = new PurchaseOrder[numberOfMarkets][];
+        int[][] destinations = new int[numberOfMarkets][];
+        SatisfactionPenalties[] penalties = new SatisfactionPenalties[numberOfMarkets];
+        forEachMarket(i -> {
+            Market home = markets.get(i);
+            ArrayList<Agent> agents = home.getAgents();
+            Random random = MarketMain.random(home);
+            int[] found = new int[numberOfMarkets + 1];
+            orders[i] = new PurchaseOrder[agents.size()];
+            destinations[i] = new int[agents.size()];
+            penalties[i] = new SatisfactionPenalties(agents.size());
+            for (int j = 0; j < agents.size(); j++){
+                Agent a = agents.get(j);
+                if (a.getCount() <= 0){
+                    continue;
+                }
+                int destination = pickMarket(a, i, found, random);
+                MarketSnapshot shop = snapshots[destination];
+                destinations[i][j] = destination;
+                orders[i][j] = MarketMain.decidePurchase(j, a, shop,
+                        good -> shop.getInventory().getOrDefault(good, 0.0), penalties[i],
+                        markets.get(destination).isFixedPoint(), random, transportCost * distance(a, destination));
+            }
+        });
+
+        // group the orders by the market they were placed at
+        int[] buyerCounts = new int[numberOfMarkets];
+        for (int i = 0; i < numberOfMarkets; i++){
+            for (int j = 0; j < orders[i].length; j++){
+                if (orders[i][j] != null){
+                    buyerCounts[destinations[i][j]]++;
+                }
+            }
+        }
+        int[][] buyerHomes = new int[numberOfMarkets][];
+        int[][] buyerIndices = new int[numberOfMarkets][];
+        for (int d = 0; d < numberOfMarkets; d++){
+            buyerHomes[d] = new int[buyerCounts[d]];
+            buyerIndices[d] = new int[buyerCounts[d]];
+            buyerCounts[d] = 0;
+        }
+        for (int i = 0; i < numberOfMarkets; i++){
+            for (int j = 0; j < orders[i].length; j++){
+                if (orders[i][j] != null){
+                    int d = destinations[i][j];
+                    buyerHomes[d][buyerCounts[d]] = i;
+                    buyerIndices[d][buyerCounts[d]] = j;
+                    buyerCounts[d]++;
+                }
+            }
+        }
+
+        // fill each market's orders, rationing over ordered goods between everyone who ordered them. Every agent
+        // ordered at one market at most, so the markets fill in parallel
+        forEachMarket(d -> {
+            Market m = markets.get(d);
+            HashMap<String, Double> ordered = new HashMap<String, Double>();
+            for (int b = 0; b < buyerHomes[d].length; b++){
+                PurchaseOrder order = orders[buyerHomes[d][b]][buyerIndices[d][b]];
+                Agent a = markets.get(buyerHomes[d][b]).getAgents().get(buyerIndices[d][b]);
+                ordered.merge(order.getGood(), order.getQuantity() * a.getCount(), Double::sum);
+            }
+            HashMap<String, Double> fillRatios = new HashMap<String, Double>();
+            for (String good : ordered.keySet()){
+                double availableQuantity = m.getInventory().getOrDefault(good, 0.0);
+                fillRatios.put(good, ordered.get(good) > availableQuantity ?
+                        availableQuantity / ordered.get(good) : 1.0);
+            }
+            for (int b = 0; b < buyerHomes[d].length; b++){
+                PurchaseOrder order = orders[buyerHomes[d][b]][buyerIndices[d][b]];
+                Agent a = markets.get(buyerHomes[d][b]).getAgents().get(buyerIndices[d][b]);
+                double filled = MarketMain.amountDown(m, order.getQuantity() * fillRatios.get(order.getGood()));
+                double payment = MarketMain.amount(m, order.getPrice() * filled);
+                MarketMain.applyPurchase(a, order.getGood(), payment, filled);
+                m.getInventory().put(order.getGood(), m.getInventory().get(order.getGood()) - (filled * a.getCount()));
+                m.setMoney(m.getMoney() + (payment * a.getCount()));
+            }
+        });
+
+        // the phases after purchasing, each market on its own again
+        forEachMarket(i -> {
+            Market m = markets.get(i);
+            penalties[i].apply(m.getAgents());
+            MarketMain.marketBilateralTrade(m);
+            MarketMain.scheduledPricesAndSupply(m);
+            MarketMain.marketDemographics(m);
+            if (m.isCohortCompression()){
+                Cohorts.compress(m, m.getCohortQuantum());
+            }
+            MarketMain.endTick(m);
+        });
+        tick++;
+    }
+
+    // money held by every agent and market on the map
+    public double totalMoney(){
+        double total = 0;
+        for (Market m : markets){
+            total += MarketMain.totalMoney(m);
+        }
+        return total;
+    }
+
+    public String toString() {
+        return ("Geography, " + this.getWidth() + " x " + this.getHeight() + ", markets: " + markets.size() + ", " +
+                "reach: " + this.getReach() + ", transport cost: " + this.getTransportCost() + ", " +
+                "tick: " + this.getTick());
+    }
+}
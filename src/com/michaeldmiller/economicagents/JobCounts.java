@@ -0,0 +1,83 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Headcount of each job in a market, with the job's total skill level and price elasticity of supply, all weighted by
+// cohort count. Every market keeps one (see Market.getJobCounts), kept up to date as an AgentObserver when agents
+// change profession or count, so the phases read supplier totals in O(1) instead of scanning every agent.
+// A profession's numbers are only read when it is taken on or left, so a Profession in use by an agent with a count
+// should only be changed through Agent.changeProfession (Demographics.reinitialize changes an empty slot's directly).
+// Short run production changes every tick an agent produces, without a profession change, so it isn't kept here.
+public class JobCounts implements AgentObserver {
+    private final LinkedHashMap<String, Integer> headcounts;
+    private final LinkedHashMap<String, Double> skill;
+    private final LinkedHashMap<String, Double> supplyElasticity;
+
+    public JobCounts() {
+        this.headcounts = new LinkedHashMap<String, Integer>();
+        this.skill = new LinkedHashMap<String, Double>();
+        this.supplyElasticity = new LinkedHashMap<String, Double>();
+    }
+
+    // read only views, jobs stay in them (at 0) once every agent has left
+    public Map<String, Integer> getHeadcounts() {
+        return Collections.unmodifiableMap(headcounts);
+    }
+
+    public Map<String, Double> getSkill() {
+        return Collections.unmodifiableMap(skill);
+    }
+
+    public Map<String, Double> getSupplyElasticity() {
+        return Collections.unmodifiableMap(supplyElasticity);
+    }
+
+    public synchronized int getHeadcount(String job){
+        return headcounts.getOrDefault(job, 0);
+    }
+
+    public synchronized double getSkill(String job){
+        return skill.getOrDefault(job, 0.0);
+    }
+
+    public synchronized double getSupplyElasticity(String job){
+        return supplyElasticity.getOrDefault(job, 0.0);
+    }
+
+    private void add(ProfessionTemplate template, double skillLevel, double supplyElasticityVariance, int members){
+        if (members == 0){
+            return;
+        }
+        String job = template.getJob();
+        headcounts.merge(job, members, Integer::sum);
+        skill.merge(job, skillLevel * members, Double::sum);
+        supplyElasticity.merge(job, template.getPriceElasticityOfSupply() * supplyElasticityVariance * members,
+                Double::sum);
+    }
+
+    private void add(Profession profession, int members){
+        add(profession.getTemplate(), profession.getSkillLevel(), profession.getSupplyElasticityVariance(), members);
+    }
+
+    public synchronized void agentAdded(Agent a){
+        add(a.getProfession(), a.getCount());
+    }
+
+    public synchronized void countChanged(Agent a, int oldCount, int newCount){
+        add(a.getProfession(), newCount - oldCount);
+    }
+
+    public synchronized void professionChanged(Agent a, ProfessionTemplate newTemplate, double newSkillLevel,
+                                               double newShortRunProduction, double newSupplyElasticityVariance){
+        if (a.getCount() > 0){
+            add(a.getProfession(), -a.getCount());
+            add(newTemplate, newSkillLevel, newSupplyElasticityVariance, a.getCount());
+        }
+    }
+
+    public String toString() {
+        return ("Job counts: " + headcounts);
+    }
+}
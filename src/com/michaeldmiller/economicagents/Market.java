@@ -2,9 +2,14 @@ package com.michaeldmiller.economicagents;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class Market {
     private ArrayList<Agent> agents;
+    // bumped whenever agents move to other indices (list replaced or rearranged), appending doesn't count
+    private int agentsModifications;
     private HashMap<String, Double> inventory;
     private ArrayList<JobOutput> jobOutputs;
     private ArrayList<Price> prices;
@@ -13,6 +18,58 @@ public class Market {
     private HashMap<String, Double> productionDifference;
     private ArrayList<MarketInfo> marketProfile;
     private double money;
+    private CareerScheduler careerScheduler;
+    // lookup of prices by good, rebuilt when the price list is replaced
+    private volatile PriceIndex priceIndex;
+    // lookups of the first job output of each job and of each good, rebuilt when the job output list changes
+    private volatile JobIndex jobIndex;
+    // shared profession of each good's job, rebuilt when the profile list or its size changes
+    private LinkedHashMap<String, ProfessionTemplate> professionTemplates;
+    private ArrayList<MarketInfo> templatedProfile;
+    private int templatedProfileSize;
+    // starting state of new agents, rebuilt along with the profession templates
+    private AgentInitializer agentInitializer;
+    private PriceUpdater priceUpdater;
+    // supply and demand curves from the latest marketPrices
+    private PriceAggregates priceAggregates;
+    // run ticks with runMarketBuffered, agent phases on the pool (the common pool if it is null)
+    private boolean doubleBuffered;
+    private ForkJoinPool pool;
+    // run ticks with runMarketConcurrent, agents sharing a ConcurrentInventory on the pool
+    private boolean concurrent;
+    // money and quantities kept on the FixedPoint grid, see MarketMain.useFixedPoint
+    private boolean fixedPoint;
+    // merge agents into Cohorts at the end of every tick, agents within the quantum of each other count as equal
+    private boolean cohortCompression;
+    private double cohortQuantum;
+    // when set, marketPrices estimates the curves from a sample of agents, see PriceSampler
+    private PriceSampler priceSampler;
+    // periods of the slow phases, null runs every phase every tick
+    private PhaseSchedule phaseSchedule;
+    // when set, runMarket runs this pipeline's phases instead of the fixed phase order
+    private PhasePipeline pipeline;
+    // when above 0, consume, priorities and purchase run as one sweep over blocks of this many agents
+    private int fusedBlockSize;
+    // the market's random number generator, null uses the calling thread's (see MarketMain.random)
+    private Random random;
+    // births and deaths, null keeps the population fixed
+    private Demographics demographics;
+    // recipes of the market profile, built by MarketMain.productionMatrix on first use
+    private ProductionMatrix productionMatrix;
+    // number of goods in each agent's basket (see MarketMain.makeAgents), 0 when agents have every good
+    private int basketSize;
+    // when set, price history indicators that agents take into account, see PriceIndicators
+    private PriceIndicators priceIndicators;
+    // when set, agents also trade with each other after purchasing, in every tick mode (on the map, with the agents
+    // of their home market), see BilateralExchange. Markets on a map each need their own, they trade in parallel
+    private BilateralExchange bilateralExchange;
+    // given to agents joining the market (births, cohort splits), see addAgentObserver
+    private AgentObserver agentObserver;
+    // headcount of each job, kept up to date by observing the agents
+    private final JobCounts jobCounts;
+    // position on the map, see Geography
+    private double x;
+    private double y;
 
     public Market(ArrayList<Agent> agents, HashMap<String, Double> inventory, ArrayList<JobOutput> jobOutputs,
                   ArrayList<Price> prices, HashMap<String, Double> marketConsumption,
@@ -27,12 +84,24 @@ public class Market {
         this.productionDifference = productionDifference;
         this.marketProfile = marketProfile;
         this.money = money;
+        this.jobCounts = new JobCounts();
+        addAgentObserver(jobCounts);
     }
 
     public ArrayList<Agent> getAgents() {
         return agents;
     }
 
+    public int getAgentsModifications() {
+        return agentsModifications;
+    }
+
+    // call after reordering or removing agents in the list in place, so anything holding agent indices (e.g.
+    // PriceSampler) rebuilds them. setAgents does this itself
+    public void agentsRearranged() {
+        agentsModifications++;
+    }
+
     public HashMap<String, Double> getInventory() {
         return inventory;
     }
@@ -45,6 +114,70 @@ public class Market {
         return prices;
     }
 
+    // the first Price in the price list for the good, or null if the good has no price
+    public Price getPrice(String good) {
+        PriceIndex index = priceIndex;
+        if (index == null || index.prices != prices || index.size != prices.size()){
+            // rebuilt when prices are added to or removed from the list, so a good without a price is a plain miss.
+            // Built fully before being published so agents looking up prices from several threads never see a
+            // partial index
+            index = new PriceIndex(prices);
+            priceIndex = index;
+        }
+        return index.priceByGood.get(good);
+    }
+
+    // good produced by the job, "" if no job output has the job
+    public String getJobGood(String job) {
+        return jobIndex().goodByJob.getOrDefault(job, "");
+    }
+
+    // job producing the good, "" if no job output has the good
+    public String getGoodJob(String good) {
+        return jobIndex().jobByGood.getOrDefault(good, "");
+    }
+
+    // template of the job producing the good, null if the profile has no such good
+    public ProfessionTemplate getProfessionTemplate(String good) {
+        return getProfessionTemplates().get(good);
+    }
+
+    public synchronized LinkedHashMap<String, ProfessionTemplate> getProfessionTemplates() {
+        if (professionTemplates == null || templatedProfile != marketProfile
+                || templatedProfileSize != marketProfile.size()){
+            professionTemplates = ProfessionTemplate.fromProfile(marketProfile);
+            agentInitializer = null;
+            templatedProfile = marketProfile;
+            templatedProfileSize = marketProfile.size();
+        }
+        return professionTemplates;
+    }
+
+    // the templates the market's agents were made with (see MarketMain.makeAgents), for the current profile
+    public synchronized void setProfessionTemplates(LinkedHashMap<String, ProfessionTemplate> newProfessionTemplates) {
+        professionTemplates = newProfessionTemplates;
+        agentInitializer = null;
+        templatedProfile = marketProfile;
+        templatedProfileSize = marketProfile.size();
+    }
+
+    public synchronized AgentInitializer getAgentInitializer() {
+        LinkedHashMap<String, ProfessionTemplate> templates = getProfessionTemplates();
+        if (agentInitializer == null){
+            agentInitializer = new AgentInitializer(marketProfile, templates);
+        }
+        return agentInitializer;
+    }
+
+    private JobIndex jobIndex(){
+        JobIndex index = jobIndex;
+        if (index == null || index.jobOutputs != jobOutputs || index.size != jobOutputs.size()){
+            index = new JobIndex(jobOutputs);
+            jobIndex = index;
+        }
+        return index;
+    }
+
     public HashMap<String, Double> getMarketConsumption() {
         return marketConsumption;
     }
@@ -65,8 +198,101 @@ public class Market {
         return money;
     }
 
+    public CareerScheduler getCareerScheduler() {
+        return careerScheduler;
+    }
+
+    public PriceUpdater getPriceUpdater() {
+        return priceUpdater;
+    }
+
+    public PriceAggregates getPriceAggregates() {
+        return priceAggregates;
+    }
+
+    public boolean isDoubleBuffered() {
+        return doubleBuffered;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    public boolean isCohortCompression() {
+        return cohortCompression;
+    }
+
+    public double getCohortQuantum() {
+        return cohortQuantum;
+    }
+
+    public PriceSampler getPriceSampler() {
+        return priceSampler;
+    }
+
+    public PhaseSchedule getPhaseSchedule() {
+        return phaseSchedule;
+    }
+
+    public PhasePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public int getFusedBlockSize() {
+        return fusedBlockSize;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public Demographics getDemographics() {
+        return demographics;
+    }
+
+    public ProductionMatrix getProductionMatrix() {
+        return productionMatrix;
+    }
+
+    public int getBasketSize() {
+        return basketSize;
+    }
+
+    public PriceIndicators getPriceIndicators() {
+        return priceIndicators;
+    }
+
+    public BilateralExchange getBilateralExchange() {
+        return bilateralExchange;
+    }
+
+    public AgentObserver getAgentObserver() {
+        return agentObserver;
+    }
+
+    public JobCounts getJobCounts() {
+        return jobCounts;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
     public void setAgents(ArrayList<Agent> newAgents) {
         agents = newAgents;
+        agentsRearranged();
     }
 
     public void setInventory(HashMap<String, Double> newInventory) {
@@ -75,10 +301,12 @@ public class Market {
 
     public void setJobOutputs(ArrayList<JobOutput> newJobOutputs) {
         jobOutputs = newJobOutputs;
+        jobIndex = null;
     }
 
     public void setPrices(ArrayList<Price> newPrices) {
         prices = newPrices;
+        priceIndex = null;
     }
 
     public void setMarketConsumption(HashMap<String, Double> newMarketConsumption) {
@@ -101,10 +329,140 @@ public class Market {
         money = newMoney;
     }
 
+    public void setCareerScheduler(CareerScheduler newCareerScheduler) {
+        careerScheduler = newCareerScheduler;
+    }
+
+    public void setPriceUpdater(PriceUpdater newPriceUpdater) {
+        priceUpdater = newPriceUpdater;
+    }
+
+    public void setPriceAggregates(PriceAggregates newPriceAggregates) {
+        priceAggregates = newPriceAggregates;
+    }
+
+    public void setDoubleBuffered(boolean newDoubleBuffered) {
+        doubleBuffered = newDoubleBuffered;
+    }
+
+    public void setPool(ForkJoinPool newPool) {
+        pool = newPool;
+    }
+
+    public void setConcurrent(boolean newConcurrent) {
+        concurrent = newConcurrent;
+    }
+
+    public void setFixedPoint(boolean newFixedPoint) {
+        fixedPoint = newFixedPoint;
+    }
+
+    public void setCohortCompression(boolean newCohortCompression) {
+        cohortCompression = newCohortCompression;
+    }
+
+    public void setCohortQuantum(double newCohortQuantum) {
+        cohortQuantum = newCohortQuantum;
+    }
+
+    public void setPriceSampler(PriceSampler newPriceSampler) {
+        priceSampler = newPriceSampler;
+    }
+
+    public void setPhaseSchedule(PhaseSchedule newPhaseSchedule) {
+        phaseSchedule = newPhaseSchedule;
+    }
+
+    public void setPipeline(PhasePipeline newPipeline) {
+        pipeline = newPipeline;
+    }
+
+    public void setFusedBlockSize(int newFusedBlockSize) {
+        fusedBlockSize = newFusedBlockSize;
+    }
+
+    public void setRandom(Random newRandom) {
+        random = newRandom;
+    }
+
+    public void setDemographics(Demographics newDemographics) {
+        demographics = newDemographics;
+    }
+
+    public void setProductionMatrix(ProductionMatrix newProductionMatrix) {
+        productionMatrix = newProductionMatrix;
+    }
+
+    public void setBasketSize(int newBasketSize) {
+        basketSize = newBasketSize;
+    }
+
+    public void setPriceIndicators(PriceIndicators newPriceIndicators) {
+        priceIndicators = newPriceIndicators;
+    }
+
+    public void setBilateralExchange(BilateralExchange newBilateralExchange) {
+        bilateralExchange = newBilateralExchange;
+    }
+
+    public void setAgentObserver(AgentObserver newAgentObserver) {
+        agentObserver = newAgentObserver;
+    }
+
+    // start observing the market's agents alongside any observers they already have, and the agents it gains later
+    public void addAgentObserver(AgentObserver observer) {
+        agentObserver = AgentObserver.chain(agentObserver, observer);
+        for (Agent a : agents){
+            a.setObserver(agentObserver);
+            observer.agentAdded(a);
+        }
+    }
+
+    public void setX(double newX) {
+        x = newX;
+    }
+
+    public void setY(double newY) {
+        y = newY;
+    }
+
     public String toString() {
         return ("This market has the following agents: \n" + this.getAgents() + "\n" +
                 "The market inventory is: " + this.getInventory() + "\n" +
                 "It permits the following job->output combinations: " + this.getJobOutputs() + "\n" +
                 "The market has these prices: " + this.getPrices() + ".");
     }
+
+    private static class PriceIndex {
+        private final ArrayList<Price> prices;
+        private final int size;
+        private final HashMap<String, Price> priceByGood;
+
+        private PriceIndex(ArrayList<Price> prices) {
+            this.prices = prices;
+            this.size = prices.size();
+            this.priceByGood = new HashMap<String, Price>();
+            for (Price p : prices){
+                priceByGood.putIfAbsent(p.getGood(), p);
+            }
+        }
+    }
+
+    private static class JobIndex {
+        private final ArrayList<JobOutput> jobOutputs;
+        private final int size;
+        private final HashMap<String, String> goodByJob;
+        private final HashMap<String, String> jobByGood;
+
+        private JobIndex(ArrayList<JobOutput> jobOutputs) {
+            this.jobOutputs = jobOutputs;
+            this.size = jobOutputs.size();
+            this.goodByJob = new HashMap<String, String>();
+            this.jobByGood = new HashMap<String, String>();
+            for (JobOutput j : jobOutputs){
+                goodByJob.putIfAbsent(j.getJob(), j.getGood());
+                jobByGood.putIfAbsent(j.getGood(), j.getJob());
+            }
+        }
+    }
 }
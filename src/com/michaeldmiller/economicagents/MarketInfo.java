@@ -1,5 +1,9 @@
 package com.michaeldmiller.economicagents;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 // given a good in a market, establish the following attributes
 public class MarketInfo {
     private final String good;
@@ -11,10 +15,21 @@ public class MarketInfo {
     private final double priorityBaseWeight;
     private final String jobName;
     private final double jobChance;
+    // recipe of the good: quantity of each input good used per unit produced. Empty for raw goods, which are
+    // produced from nothing. See ProductionMatrix
+    private final Map<String, Double> inputs;
 
     public MarketInfo(String good, double baseConsumption, double baseProduction, double priceElasticityDemand,
                       double priceElasticitySupply, double goodCost, double priorityBaseWeight,
                       String jobName, double jobChance) {
+        this(good, baseConsumption, baseProduction, priceElasticityDemand, priceElasticitySupply, goodCost,
+                priorityBaseWeight, jobName, jobChance, Collections.emptyMap());
+    }
+
+    // inputs are copied in their order
+    public MarketInfo(String good, double baseConsumption, double baseProduction, double priceElasticityDemand,
+                      double priceElasticitySupply, double goodCost, double priorityBaseWeight,
+                      String jobName, double jobChance, Map<String, Double> inputs) {
         this.good = good;
         this.baseConsumption = baseConsumption;
         this.baseProduction = baseProduction;
@@ -24,6 +39,7 @@ public class MarketInfo {
         this.priorityBaseWeight = priorityBaseWeight;
         this.jobName = jobName;
         this.jobChance = jobChance;
+        this.inputs = Collections.unmodifiableMap(new LinkedHashMap<String, Double>(inputs));
     }
 
     public String getGood() {
@@ -61,6 +77,11 @@ public class MarketInfo {
         return jobChance;
     }
 
+    // read only
+    public Map<String, Double> getInputs() {
+        return inputs;
+    }
+
     public String toString() {
         return ("Good: " + this.getGood() + ", " +
                 "Base Consumption: " + this.getBaseConsumption() + ", " +
@@ -70,7 +91,8 @@ public class MarketInfo {
                 "Good Cost: " + this.getGoodCost() + ", " +
                 "Base Weight: " + this.getPriorityBaseWeight() + ", " +
                 "Job Name: " + this.getJobName() + ", " +
-                "Job Chance: " + this.getJobChance() + ", ");
+                "Job Chance: " + this.getJobChance() + ", " +
+                "Inputs: " + this.getInputs());
     }
 
 
@@ -1,6 +1,12 @@
 package com.michaeldmiller.economicagents;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
 
 public class MarketMain {
     /*
@@ -24,14 +30,23 @@ public class MarketMain {
 
     // randomizer functions, designed in a previous project:
     public static String randomPick(ArrayList<String> lst){
+        return randomPick(lst, ThreadLocalRandom.current());
+    }
+
+    public static String randomPick(ArrayList<String> lst, Random random){
         // given a list of strings, return a random choice from the list
         // does not modify the list or prevent duplicate picks
         int listLength = lst.size();
-        int choiceNumber = (int) (Math.random() * listLength);
+        int choiceNumber = (int) (random.nextDouble() * listLength);
         return lst.get(choiceNumber);
     }
 
     public static String randomWeightedPick(ArrayList<String> choices, ArrayList<Integer> weights){
+        return randomWeightedPick(choices, weights, ThreadLocalRandom.current());
+    }
+
+    public static String randomWeightedPick(ArrayList<String> choices, ArrayList<Integer> weights,
+                                            RandomGenerator random){
         // ArrayList<String>, ArrayList<Integer> -> String
         // given a list of choices, and a list of integer weights of the same list length
         // whose values correspond to the weights of the choices, make a weighted randomized
@@ -54,7 +69,7 @@ public class MarketMain {
         }
         // System.out.println(weightedList);
         // now, using combined weight total, select an individual weight unit within it
-        int unitSelection = (int) (Math.random() * weightTotal);
+        int unitSelection = (int) (random.nextDouble() * weightTotal);
         // System.out.println(weightTotal);
         // System.out.println(unitSelection);
 
@@ -69,19 +84,74 @@ public class MarketMain {
         return output;
     }
 
+    // the market's random number generator, so seeded markets are reproducible and isolated from each other.
+    // Markets without one use the calling thread's generator
+    public static Random random (Market m){
+        return m.getRandom() != null ? m.getRandom() : ThreadLocalRandom.current();
+    }
+
+    // seed of one tick's agent streams (see agentRandom), drawn from the market's generator on the calling thread
+    public static long tickSeed (Market m){
+        return random(m).nextLong();
+    }
+
+    // random stream of one agent in one tick, for phases that run agents on the pool. It depends only on the tick
+    // seed and the agent's index, not on which thread the agent lands on or when, so a seeded market's parallel
+    // runs are reproducible
+    public static SplittableRandom agentRandom (long tickSeed, int agentIndex){
+        // splitmix64 finalizer, so neighbouring agents' streams are unrelated
+        long z = tickSeed + ((agentIndex + 1L) * 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new SplittableRandom(z ^ (z >>> 31));
+    }
+
+    // money and quantities moved between agents and the market go through these, which round them to the fixed
+    // point grid on a market using one. Since every stored amount then stays on the grid, all the sums built from
+    // them are exact and do not depend on the order agents are processed in
+    public static double amount (Market m, double value){
+        return m.isFixedPoint() ? FixedPoint.quantize(value) : value;
+    }
+
+    // rounds down instead, for quantities that must not exceed what is available or affordable
+    public static double amountDown (Market m, double value){
+        return m.isFixedPoint() ? FixedPoint.quantizeDown(value) : value;
+    }
+
+    // switch a market to fixed point money and quantities, rounding its current state to the grid. Throws
+    // IllegalArgumentException if the market's total money is beyond the range where the grid is exact
+    public static void useFixedPoint (Market market){
+        double total = Math.abs(market.getMoney());
+        for (Agent a : market.getAgents()){
+            total += Math.abs(a.getMoney()) * Math.max(0, a.getCount());
+        }
+        if (total > FixedPoint.MAXIMUM){
+            throw new IllegalArgumentException("Total money " + total + " is too large for exact fixed point, "
+                    + "the limit is " + FixedPoint.MAXIMUM);
+        }
+        market.setFixedPoint(true);
+        market.setMoney(FixedPoint.quantize(market.getMoney()));
+        for (Map.Entry<String, Double> good : market.getInventory().entrySet()){
+            good.setValue(FixedPoint.quantize(good.getValue()));
+        }
+        for (Agent a : market.getAgents()){
+            a.setMoney(FixedPoint.quantize(a.getMoney()));
+            for (Map.Entry<String, Double> good : a.getInventory().entrySet()){
+                good.setValue(FixedPoint.quantize(good.getValue()));
+            }
+            for (Consumption c : a.getConsumption().values()){
+                c.setTotalUnmetNeed(FixedPoint.quantize(c.getTotalUnmetNeed()));
+            }
+        }
+    }
+
     // First Method: Produce
     // Given an Agent and a Market, have the agent produce a good according to its Job, deliver
     // the good to the market, and be compensated accordingly.
     // Breaks if the agent is not initialized with a job that is in the market's job output list!
     public static void agentProduce (Agent agent, Market market){
         // first determine what goods are going to be produced
-        String goodType = "";
-        for (JobOutput j : market.getJobOutputs()) {
-            if (j.getJob().equals(agent.getProfession().getJob())) {
-                goodType = j.getGood();
-                break;
-            }
-        }
+        String goodType = market.getJobGood(agent.getProfession().getJob());
 
         // major modification: variable production. Agent skill level is the maximum it can produce, if there is
         // an oversupply, agent will reduce its own production down to within a variance of the market needs
@@ -127,7 +197,8 @@ public class MarketMain {
         double baseProduction = agent.getProfession().getSkillLevel() * agent.getProfession().getBaseProduction();
         producedQuantity = baseProduction * (1 - variance);
         */
-        producedQuantity = agent.getProfession().getSkillLevel() * agent.getProfession().getBaseProduction();
+        producedQuantity = amount(market,
+                agent.getProfession().getSkillLevel() * agent.getProfession().getBaseProduction());
 
         // then have the Agent produce the Good (literally produces the amount of their skill level)
         // Item agentProduction = new Item (goodType, producedQuantity);
@@ -141,27 +212,116 @@ public class MarketMain {
             }
         }
         agent.getProfession().setShortRunProduction(producedQuantity);
+        double payment = amount(market, producedQuantity * currentPrice);
 
         // pay Agent
         //System.out.println("Agent ID" + agent.getId() + "current money" + agent.getMoney());
         // System.out.println("Produced Quantity" + producedQuantity + "Current Price" + currentPrice);
         //System.out.println("Skill Level" + agent.getProfession().getSkillLevel() + "Base Production" + agent.getProfession().getBaseProduction());
-        agent.setMoney(agent.getMoney() + (producedQuantity * currentPrice));
+        agent.setMoney(agent.getMoney() + payment);
         //System.out.println("New money" + agent.getMoney());
-        // Market pays
-        market.setMoney(market.getMoney() - (producedQuantity * currentPrice));
+        // Market pays (every member of a cohort)
+        market.setMoney(market.getMoney() - (payment * agent.getCount()));
         // send good to market
-        market.getInventory().put(goodType, market.getInventory().get(goodType) + producedQuantity);
+        market.getInventory().put(goodType,
+                market.getInventory().get(goodType) + (producedQuantity * agent.getCount()));
 
     }
 
+    // the market's recipes, built on first use
+    public static ProductionMatrix productionMatrix (Market m){
+        ProductionMatrix matrix = m.getProductionMatrix();
+        if (matrix == null){
+            matrix = ProductionMatrix.build(m.getMarketProfile());
+            m.setProductionMatrix(matrix);
+        }
+        return matrix;
+    }
+
     // apply Agent production to the Market
     public static void marketProduce (Market m){
+        // goods with recipes in the market profile are produced from their inputs
+        ProductionMatrix matrix = productionMatrix(m);
+        if (!matrix.isEmpty()){
+            marketProduceRecipes(m, matrix);
+            return;
+        }
         for (Agent a : m.getAgents()){
+            // skip empty slots (dead agents, merged cohorts)
+            if (a.getCount() <= 0){
+                continue;
+            }
             agentProduce(a, m);
         }
     }
 
+    // production with recipes. Producers of raw goods produce first, as in agentProduce. The producers of each
+    // recipe are then batched: their desired output is summed per recipe, the matrix works out the inputs needed and
+    // what fraction of each recipe the market's inventory can supply, and every producer makes that fraction of its
+    // output. Inputs come out of the market's inventory, so a good made this tick can be an input from next tick on.
+    // Producers are paid the value they add: their output at the market price less their inputs at market prices.
+    public static void marketProduceRecipes (Market m, ProductionMatrix matrix){
+        ArrayList<Agent> agents = m.getAgents();
+        String[] goods = matrix.getGoods();
+        int[] rows = new int[agents.size()];
+        double[] desired = new double[matrix.getRows()];
+        for (int i = 0; i < agents.size(); i++){
+            Agent a = agents.get(i);
+            rows[i] = -1;
+            if (a.getCount() <= 0){
+                continue;
+            }
+            int row = matrix.row(a.getProfession().getJob());
+            if (row < 0){
+                agentProduce(a, m);
+            }
+            else {
+                rows[i] = row;
+                desired[row] += amount(m, a.getProfession().getSkillLevel() * a.getProfession().getBaseProduction())
+                        * a.getCount();
+            }
+        }
+
+        double[] available = new double[goods.length];
+        double[] prices = new double[goods.length];
+        for (int g = 0; g < goods.length; g++){
+            available[g] = m.getInventory().getOrDefault(goods[g], 0.0);
+            Price price = m.getPrice(goods[g]);
+            prices[g] = price == null ? 0 : price.getCost();
+        }
+        double[] fractions = matrix.rowFractions(desired, available);
+        double[] inputCosts = matrix.rowCosts(prices);
+
+        double[] produced = new double[matrix.getRows()];
+        for (int i = 0; i < agents.size(); i++){
+            int row = rows[i];
+            if (row < 0){
+                continue;
+            }
+            Agent a = agents.get(i);
+            // rounded down, so the inputs used never exceed what was rationed
+            double producedQuantity = amountDown(m, a.getProfession().getSkillLevel()
+                    * a.getProfession().getBaseProduction() * fractions[row]);
+            a.getProfession().setShortRunProduction(producedQuantity);
+            int output = matrix.goodIndex(matrix.getRowGood(row));
+            double payment = amount(m, producedQuantity * (prices[output] - inputCosts[row]));
+            a.setMoney(a.getMoney() + payment);
+            m.setMoney(m.getMoney() - (payment * a.getCount()));
+            produced[row] += producedQuantity * a.getCount();
+        }
+
+        double[] used = matrix.inputDemand(produced);
+        for (int g = 0; g < goods.length; g++){
+            if (used[g] > 0){
+                m.getInventory().put(goods[g], available[g] - Math.min(available[g], amount(m, used[g])));
+            }
+        }
+        for (int r = 0; r < matrix.getRows(); r++){
+            String good = matrix.getRowGood(r);
+            m.getInventory().put(good, m.getInventory().getOrDefault(good, 0.0) + produced[r]);
+        }
+    }
+
     // have the Agents consume goods according to their consumption profile.
     // *this interpretation REQUIRES that inventory and consumption have the same goods in the same order*
     // (^ helps performance)
@@ -169,55 +329,66 @@ public class MarketMain {
     // the relative need
 
     public static void agentConsume (Agent a, Market m){
+        // each good's inventory and unmet need only depend on that good, so the goods are consumed in one pass and
+        // the priorities are brought up to date in a second, keeping the work linear in the size of the basket
+        String lastConsumed = null;
         for (Map.Entry<String, Consumption> agentConsumption: a.getConsumption().entrySet()){
             // handle unmet needs, if they exist
             // unmet need cap would go here if implemented
 
             double currentInventoryAmount = a.getInventory().get(agentConsumption.getKey());
-            double newInventoryAmount = currentInventoryAmount - agentConsumption.getValue().getTickConsumption();
+            double consumedAmount = amount(m, agentConsumption.getValue().getTickConsumption());
+            double newInventoryAmount = currentInventoryAmount - consumedAmount;
 
-            a.getInventory().put(agentConsumption.getKey(),
-                    a.getInventory().get(agentConsumption.getKey()) - agentConsumption.getValue().getTickConsumption());
+            a.getInventory().put(agentConsumption.getKey(), newInventoryAmount);
             // handle negatives: add an unmet consumption need to the list
             if (newInventoryAmount < 0){
                 double shortage = currentInventoryAmount - newInventoryAmount;
                 // prevent rounding error shortages from being counted
                 if (Math.abs(shortage) > 0.01){
                     // add value to total unmet need for agent
-                    a.getConsumption().get(agentConsumption.getKey()).setTotalUnmetNeed(
-                            a.getConsumption().get(agentConsumption.getKey()).getTotalUnmetNeed() + shortage);
+                    agentConsumption.getValue().setTotalUnmetNeed(
+                            agentConsumption.getValue().getTotalUnmetNeed() + shortage);
 
                 }
                 a.getInventory().put(agentConsumption.getKey(), 0.0);
-                for (Priority p : a.getPriorities()){
-                    if (p.getGood().equals(agentConsumption.getKey())){
-                        // add cumulative need effect
-                        // p.setModifier(p.getRelativeNeed() * 1.5 + (0.1 * p.getModifier()));
-                    }
-                }
+                // add cumulative need effect
+                // p.setModifier(p.getRelativeNeed() * 1.5 + (0.1 * p.getModifier()));
             }
-            // since there have been significant changes to inventory and unmet needs since the weight system was
-            // last updated, need to begin including unmet need total in weighting calculation
-            // add unmet need total to modifier
-            for (Priority p : a.getPriorities()){
-                p.setModifier(a.getConsumption().get(p.getGood()).getTotalUnmetNeed());
-            }
-
+            lastConsumed = agentConsumption.getKey();
+        }
+        if (lastConsumed == null){
+            return;
+        }
 
-            // reset modifier if agent has successfully acquired a sufficient amount of the good
-            if (a.getInventory().get(agentConsumption.getKey()) >= (1 - agentConsumption.getValue().getTickConsumption())){
-                for (Priority p : a.getPriorities()){
-                    if (p.getGood().equals(agentConsumption.getKey())){
-                        p.setModifier(1.0);
-                    }
-                }
+        // since there have been significant changes to inventory and unmet needs since the weight system was
+        // last updated, need to begin including unmet need total in weighting calculation
+        // add unmet need total to modifier
+        // reset modifier if agent has successfully acquired a sufficient amount of the good. Only the reset of the
+        // last good consumed ever outlasted the modifier updates of the goods after it, so only that one is applied
+        Consumption last = a.getConsumption().get(lastConsumed);
+        boolean lastReset = a.getInventory().get(lastConsumed) >= (1 - last.getTickConsumption());
+        for (Priority p : a.getPriorities()){
+            Consumption c = a.getConsumption().get(p.getGood());
+            double modifier = (lastReset && p.getGood().equals(lastConsumed)) ? 1.0 : c.getTotalUnmetNeed();
+            // the weight only reads the inventory above 5 ticks worth (decreasing marginal utility) and the unmet
+            // need, which consumption only changes when it runs the good out, so a priority whose good stayed
+            // below that on hand and whose modifier is unchanged keeps its weight
+            double inventory = a.getInventory().get(p.getGood());
+            double before = inventory + amount(m, c.getTickConsumption());
+            if (modifier != p.getModifier() || inventory <= 0
+                    || before >= 5 * c.getTickConsumption() * (1 - Price.VERSION_EPSILON)){
+                p.setModifier(modifier);
+                p.setDirty(true);
             }
-
         }
     }
     // apply Agent consumption to the Market
     public static void marketConsume (Market m){
         for (Agent a : m.getAgents()){
+            if (a.getCount() <= 0){
+                continue;
+            }
             agentConsume(a, m);
         }
     }
@@ -226,75 +397,119 @@ public class MarketMain {
     // splitting into two functions: one which updates agent priorities,
     // second which makes actual purchasing decision
 
+    // a priority needs recomputing if the agent's inventory, unmet need or modifier for the good changed since it was
+    // last computed (its dirty bit), or if the good's price has moved on to a new version
+    public static boolean priorityStale (Priority p, Market m){
+        if (p.isDirty()){
+            return true;
+        }
+        Price price = m.getPrice(p.getGood());
+        return price == null || priceVersion(m, price) != p.getPriceVersion();
+    }
+
+    // version of everything a priority's weight reads about the good's price: the price's own version, plus the
+    // version of its indicators if the market has them. Both only ever go up, so the sum changes whenever either does
+    public static long priceVersion (Market m, Price price){
+        PriceIndicators indicators = m.getPriceIndicators();
+        return price.getVersion() + (indicators == null ? 0 : indicators.getVersion(price.getGood()));
+    }
+
+    // factor on a priority's weight from the good's price history, 1 without price indicators
+    public static double weightFactor (Market m, String good){
+        PriceIndicators indicators = m.getPriceIndicators();
+        return indicators == null ? 1 : indicators.weightFactor(good);
+    }
+
     public static void agentPriorities (Agent a, Market m){
-        // calculate current relative demand based on elasticity
+        // only recompute priorities whose inputs changed. Checking each priority costs a little, so when most of
+        // them are stale anyway, recompute all of them
+        int stalePriorities = 0;
         for (Priority p : a.getPriorities()){
-            // change demand elasticity based on sum of remembered unmet consumption
-            double totalUnmetNeed = a.getConsumption().get(p.getGood()).getTotalUnmetNeed();
-
-            // set need ratio at (total unmet need / per tick consumption)
-            double unmetNeedRatio = totalUnmetNeed / a.getConsumption().get(p.getGood()).getTickConsumption();
-            // y = -1 * (1 / unmetNeedRatio * original elasticity inverse)
-            // (sets decay with y intercept at original elasticity)
-            p.setPriceElasticity(-1 * (1 / ((0.1 * unmetNeedRatio) + (Math.pow(Math.abs(p.getOriginalPriceElasticity()), -1)))));
-
-            // get market values (may get market average here later)
-            double currentMarketCost = 0;
-            double currentEquilibriumCost = 0;
-            for (Price c : m.getPrices()){
-                if (p.getGood().equals(c.getGood())){
-                    currentMarketCost = c.getCost();
-                    currentEquilibriumCost = c.getEquilibriumCost();
-                    break;
-                }
+            if (priorityStale(p, m)){
+                stalePriorities++;
             }
-            // with market values in hand, make elasticity calculation
-
-            // establish cost difference: positive means market is overcharging, negative undercharging
-            // relativeCostDifference is in percent
-            double relativeCostDifference = ((currentMarketCost - currentEquilibriumCost)/currentEquilibriumCost) * 100;
-            // combine with elasticity, set relative need
-            // get consumption
-            double consumedQuantity = 0;
-            for (Map.Entry<String, Consumption> c : a.getConsumption().entrySet()){
-                if (c.getKey().equals(p.getGood())){
-                    consumedQuantity = c.getValue().getTickConsumption();
-                    break;
-                }
+        }
+        if (stalePriorities == 0){
+            return;
+        }
+        boolean recomputeAll = stalePriorities * 2 > a.getPriorities().size();
+        for (Priority p : a.getPriorities()){
+            if (recomputeAll || priorityStale(p, m)){
+                updatePriority(a, p, m);
             }
-            // set demand curve, maybe actually working this time
-            // get price induced demand reduction/increase
-            // negative * negative = positive; positive * negative = negative
-
-            // currently, relative cost difference is always 0, making this useless
-            // double priceElasticityOfDemand = relativeCostDifference * p.getPriceElasticity();
-
-            double priceElasticityOfDemand = currentMarketCost * p.getPriceElasticity();
+        }
+    }
 
-            // add decreasing marginal utility
-            double amountInInventory = a.getInventory().get(p.getGood());
-            double decreasingMarginalUtility = 1;
-            if (amountInInventory > (5 * consumedQuantity)){
-                decreasingMarginalUtility = (((amountInInventory - (5 * consumedQuantity))
-                        / (5 * consumedQuantity)) * -1);
-            }
+    public static void updatePriority (Agent a, Priority p, Market m){
+        // calculate current relative demand based on elasticity
+        // change demand elasticity based on sum of remembered unmet consumption
+        double totalUnmetNeed = a.getConsumption().get(p.getGood()).getTotalUnmetNeed();
+
+        // set need ratio at (total unmet need / per tick consumption)
+        double unmetNeedRatio = totalUnmetNeed / a.getConsumption().get(p.getGood()).getTickConsumption();
+        // y = -1 * (1 / unmetNeedRatio * original elasticity inverse)
+        // (sets decay with y intercept at original elasticity)
+        p.setPriceElasticity(-1 * (1 / ((0.1 * unmetNeedRatio) + (Math.pow(Math.abs(p.getOriginalPriceElasticity()), -1)))));
+
+        // get market values (may get market average here later)
+        double currentMarketCost = 0;
+        double currentEquilibriumCost = 0;
+        long currentPriceVersion = -1;
+        Price c = m.getPrice(p.getGood());
+        if (c != null){
+            currentMarketCost = c.getCost();
+            currentEquilibriumCost = c.getEquilibriumCost();
+            currentPriceVersion = priceVersion(m, c);
+        }
+        // with market values in hand, make elasticity calculation
+
+        // establish cost difference: positive means market is overcharging, negative undercharging
+        // relativeCostDifference is in percent
+        double relativeCostDifference = ((currentMarketCost - currentEquilibriumCost)/currentEquilibriumCost) * 100;
+        // combine with elasticity, set relative need
+        // get consumption
+        double consumedQuantity = a.getConsumption().get(p.getGood()).getTickConsumption();
+        // set demand curve, maybe actually working this time
+        // get price induced demand reduction/increase
+        // negative * negative = positive; positive * negative = negative
+
+        // currently, relative cost difference is always 0, making this useless
+        // double priceElasticityOfDemand = relativeCostDifference * p.getPriceElasticity();
+
+        double priceElasticityOfDemand = currentMarketCost * p.getPriceElasticity();
+
+        // add decreasing marginal utility
+        double amountInInventory = a.getInventory().get(p.getGood());
+        double decreasingMarginalUtility = 1;
+        if (amountInInventory > (5 * consumedQuantity)){
+            decreasingMarginalUtility = (((amountInInventory - (5 * consumedQuantity))
+                    / (5 * consumedQuantity)) * -1);
+        }
 
-            p.setRelativeNeed((consumedQuantity * 100) * (1 + (priceElasticityOfDemand / 100))
-                                                        * (1 + decreasingMarginalUtility));
+        p.setRelativeNeed((consumedQuantity * 100) * (1 + (priceElasticityOfDemand / 100))
+                                                    * (1 + decreasingMarginalUtility));
 
-            // set final weight
-            // adding modifier prevents price aversion from overwhelming need to buy something
+        // set final weight
+        // adding modifier prevents price aversion from overwhelming need to buy something
 
-            p.setWeight((p.getBaseWeight() * p.getRelativeNeed()) + p.getModifier());
+        // expected price moves scale the need, a good whose price is rising is wanted more before it gets dearer
+        p.setWeight((p.getBaseWeight() * p.getRelativeNeed() * weightFactor(m, p.getGood())) + p.getModifier());
 
-            // set negative weight to 0
-            if (p.getWeight() < 0){
-                p.setWeight(0);
-            }
+        // set negative weight to 0
+        if (p.getWeight() < 0){
+            p.setWeight(0);
         }
+
+        // priority is now up to date with the agent's state and the market price
+        p.setDirty(false);
+        p.setPriceVersion(currentPriceVersion);
     }
+
     public static void marketPriorities (Market m){
         for (Agent a : m.getAgents()){
+            if (a.getCount() <= 0){
+                continue;
+            }
             agentPriorities(a, m);
         }
     }
@@ -322,16 +537,11 @@ public class MarketMain {
             }
             // System.out.println("Didn't break due to good size");
             // make choice
-            String chosenGood = randomWeightedPick(goods, satisfactions);
+            String chosenGood = randomWeightedPick(goods, satisfactions, random(m));
             //System.out.println("Chosen Good: " + chosenGood);
             // look up Good price
-            double chosenGoodPrice = 0;
-            for (Price c : m.getPrices()) {
-                if (c.getGood().equals(chosenGood)) {
-                    chosenGoodPrice = c.getCost();
-                    break;
-                }
-            }
+            Price chosenPrice = m.getPrice(chosenGood);
+            double chosenGoodPrice = chosenPrice == null ? 0 : chosenPrice.getCost();
 
             // See if Agent can't afford to buy its chosen good
             if (a.getMoney() < chosenGoodPrice) {
@@ -353,13 +563,7 @@ public class MarketMain {
                 // satisfaction decrease if agent cannot afford to buy a good
                 // diminish production satisfaction of other goods
                 // find job title for the good
-                String jobTitle = "";
-                for (JobOutput j : m.getJobOutputs()){
-                    if (j.getGood().equals(chosenGood)){
-                        jobTitle = j.getJob();
-                        break;
-                    }
-                }
+                String jobTitle = m.getGoodJob(chosenGood);
                 for (Agent agents : m.getAgents()){
                     if (!agents.getProfession().getJob().equals(jobTitle)){
                         agents.setSatisfaction(a.getSatisfaction() - 0.1);
@@ -386,13 +590,7 @@ public class MarketMain {
 
                 // diminish production satisfaction of other goods
                 // find job title for the good
-                String jobTitle = "";
-                for (JobOutput j : m.getJobOutputs()){
-                    if (j.getGood().equals(chosenGood)){
-                        jobTitle = j.getJob();
-                        break;
-                    }
-                }
+                String jobTitle = m.getGoodJob(chosenGood);
                 // Fixed Bug v0.5.6
                 for (Agent agents : m.getAgents()){
                     if (!agents.getProfession().getJob().equals(jobTitle)){
@@ -435,15 +633,24 @@ public class MarketMain {
                 // get market inventory amount for sale
                 double amountForSale = m.getInventory().get(chosenGood);
                 // pick whichever the smallest
-                desiredQuantity = Math.min(personalMaximum, amountForSale);
+                desiredQuantity = amountDown(m, Math.min(personalMaximum, amountForSale));
+            }
+            // buy ahead of a price rise, as far as the agent can pay and the market has stock
+            if (m.getPriceIndicators() != null){
+                double hoardingFactor = m.getPriceIndicators().hoardingFactor(chosenGood);
+                if (hoardingFactor > 1){
+                    desiredQuantity = amountDown(m, Math.min(desiredQuantity * hoardingFactor,
+                            Math.min(a.getMoney() / chosenGoodPrice, m.getInventory().get(chosenGood))));
+                }
             }
             // System.out.println(chosenGood + ", " + unmetNeedQuantity);
             // System.out.println(chosenGood + ", " + m.getInventory().get(chosenGood));
             double purchaseAmount = desiredQuantity;
+            double payment = amount(m, chosenGoodPrice * desiredQuantity);
 
             // deduct from Agent's money:
-            a.setMoney(a.getMoney() - chosenGoodPrice * desiredQuantity);
-            m.setMoney(m.getMoney() + chosenGoodPrice * desiredQuantity);
+            a.setMoney(a.getMoney() - payment);
+            m.setMoney(m.getMoney() + payment);
             // remove good from Market's inventory:
 
             //System.out.println("Market Amount of " + chosenGood + m.getInventory().get(chosenGood));
@@ -466,7 +673,6 @@ public class MarketMain {
                 else{
                     // otherwise, agent purchased more than their total unmet need, so set the total unmet need
                     // to 0 and set the remainder as the amountRemaining
-                    System.out.println(a.getConsumption().get(chosenGood));
                     amountRemaining -= a.getConsumption().get(chosenGood).getTotalUnmetNeed();
                     a.getConsumption().get(chosenGood).setTotalUnmetNeed(0);
                 }
@@ -480,18 +686,153 @@ public class MarketMain {
                 a.getInventory().put(chosenGood, a.getInventory().get(chosenGood) + purchaseAmount);
             }
 
+            // inventory and unmet need of the purchased good changed
+            for (Priority p : a.getPriorities()){
+                if (p.getGood().equals(chosenGood)){
+                    p.setDirty(true);
+                }
+            }
+
             notPurchased = false;
             break;
             }
         }
 
     public static void marketPurchase (Market m){
+        // members of a cohort choose one by one, cohorts whose members chose differently are split
+        ArrayList<Agent> splitCohorts = new ArrayList<Agent>();
+        MarketSnapshot cohortPrices = null;
         for (Agent a : m.getAgents()){
-            agentPurchase(a, m);
+            if (a.getCount() <= 0){
+                continue;
+            }
+            if (a.getCount() > 1){
+                if (cohortPrices == null){
+                    cohortPrices = new MarketSnapshot(m);
+                }
+                splitCohorts.addAll(Cohorts.purchase(a, m, cohortPrices));
+            }
+            else {
+                agentPurchase(a, m);
+            }
         }
+        Cohorts.addAgents(m, splitCohorts);
     }
 
 
+    // consume, priorities and purchase fused into one sweep: each block of agents goes through all three phases
+    // before the next block is touched, so the block's inventories, consumptions and priorities are still in cache
+    // for the later phases. No agent's consumption or priorities depend on another agent's purchase, and prices
+    // don't change until marketPrices, so this gives the same result as running the phases one after the other
+    public static void marketFusedAgentPass (Market m){
+        ArrayList<Agent> agents = m.getAgents();
+        // cohorts split off during purchasing have already consumed, they are added after the sweep
+        int numberOfAgents = agents.size();
+        int blockSize = Math.max(1, m.getFusedBlockSize());
+        ArrayList<Agent> splitCohorts = new ArrayList<Agent>();
+        MarketSnapshot cohortPrices = null;
+        for (int start = 0; start < numberOfAgents; start += blockSize){
+            int end = Math.min(start + blockSize, numberOfAgents);
+            for (int i = start; i < end; i++){
+                if (agents.get(i).getCount() > 0){
+                    agentConsume(agents.get(i), m);
+                }
+            }
+            for (int i = start; i < end; i++){
+                if (agents.get(i).getCount() > 0){
+                    agentPriorities(agents.get(i), m);
+                }
+            }
+            for (int i = start; i < end; i++){
+                Agent a = agents.get(i);
+                if (a.getCount() <= 0){
+                    continue;
+                }
+                if (a.getCount() > 1){
+                    if (cohortPrices == null){
+                        cohortPrices = new MarketSnapshot(m);
+                    }
+                    splitCohorts.addAll(Cohorts.purchase(a, m, cohortPrices));
+                }
+                else {
+                    agentPurchase(a, m);
+                }
+            }
+        }
+        Cohorts.addAgents(m, splitCohorts);
+    }
+
+
+    // add one agent's demand and supply curves to the per good sums (scaled by the agent's cohort count)
+    public static void addAgentCurves (Agent a, Market market, PriceAggregates aggregates,
+                                       HashMap<String, Integer> goodIndex,
+                                       HashMap<String, ArrayList<Integer>> goodsByJob){
+        double[] demandSum = aggregates.getDemandSlope();
+        double[] sumDemandIntercept = aggregates.getDemandIntercept();
+        double[] supplySum = aggregates.getSupplySlope();
+        double[] sumSupplyIntercept = aggregates.getSupplyIntercept();
+        double[] numOfProducers = aggregates.getProducers();
+
+        // add to demand elasticities
+        for (Priority r : a.getPriorities()){
+            Integer i = goodIndex.get(r.getGood());
+            if (i != null){
+                demandSum[i] += amount(market, r.getPriceElasticity()) * a.getCount();
+            }
+        }
+        // Change 0.5.9: intercept includes unmet need
+        // add demand intercept to sum
+        for (Map.Entry<String, Consumption> c : a.getConsumption().entrySet()) {
+            Integer i = goodIndex.get(c.getKey());
+            if (i != null) {
+                // add base demand
+                sumDemandIntercept[i] += amount(market, c.getValue().getTickConsumption() * 10) * a.getCount();
+                // also add sum of agent's unmet needs or maximum money, whichever is smaller
+                // cap agents unmet needs at 100 * per tick consumption, to prevent runaway inflation
+
+                // double maximumUnmetGoodNeed = c.getValue().getTotalUnmetNeed();
+                // maximumUnmetGoodNeed = Math.min(maximumUnmetGoodNeed, c.getValue().getTickConsumption() * 100);
+
+                // double totalMoney = a.getMoney();
+                // sumDemandIntercept += Math.min(maximumUnmetGoodNeed, totalMoney);
+
+                // scale demand by square root of unmet needs (to prevent extreme runaway inflation)
+                double maximumUnmetGoodNeed = Math.sqrt(c.getValue().getTotalUnmetNeed());
+
+                sumDemandIntercept[i] += amount(market, maximumUnmetGoodNeed) * a.getCount();
+            }
+        }
+        // SupplySum was adding one for every agent, regardless of profession!
+        // without goodsByJob the supply sums are left to addJobCurves
+        ArrayList<Integer> producedGoods = goodsByJob == null ? null : goodsByJob.get(a.getProfession().getJob());
+        if (producedGoods != null){
+            for (int i : producedGoods){
+                supplySum[i] += amount(market, a.getProfession().getPriceElasticityOfSupply()) * a.getCount();
+                sumSupplyIntercept[i] += a.getCount();
+                // good minimum not dealt with, all production has 0 minimum across all Agents
+                numOfProducers[i] += a.getCount();
+            }
+        }
+    }
+
+    // add every job's supply curves to the per good sums, from the market's job counts
+    public static void addJobCurves (Market market, PriceAggregates aggregates,
+                                     HashMap<String, ArrayList<Integer>> goodsByJob){
+        JobCounts jobCounts = market.getJobCounts();
+        for (Map.Entry<String, ArrayList<Integer>> job : goodsByJob.entrySet()){
+            int headcount = jobCounts.getHeadcount(job.getKey());
+            if (headcount == 0){
+                continue;
+            }
+            double supplyElasticity = amount(market, jobCounts.getSupplyElasticity(job.getKey()));
+            for (int i : job.getValue()){
+                aggregates.getSupplySlope()[i] += supplyElasticity;
+                aggregates.getSupplyIntercept()[i] += headcount;
+                aggregates.getProducers()[i] += headcount;
+            }
+        }
+    }
+
     public static void marketPrices (Market market){
         // given a Market, calculate the Supply and Demand equilibrium for each good, then
         // use this to set the prices of each good
@@ -507,138 +848,115 @@ public class MarketMain {
         // can possibly set to 0, will do so temporarily
 
         // calculate equilibrium price
+        // the curves of every good are summed in a single pass over the agents into per good arrays
+
+        // index goods, and determine the profession of each good
+        HashMap<String, Integer> goodIndex = new HashMap<String, Integer>();
+        HashMap<String, ArrayList<Integer>> goodsByJob = new HashMap<String, ArrayList<Integer>>();
+        HashMap<String, String> jobByGood = new HashMap<String, String>();
+        for (JobOutput j : market.getJobOutputs()){
+            jobByGood.put(j.getGood(), j.getJob());
+        }
+        for (int i = 0; i < market.getPrices().size(); i++){
+            Price p = market.getPrices().get(i);
+            goodIndex.putIfAbsent(p.getGood(), i);
+            String jobType = jobByGood.getOrDefault(p.getGood(), "");
+            goodsByJob.computeIfAbsent(jobType, k -> new ArrayList<Integer>()).add(i);
+        }
 
-        for (Price p : market.getPrices()){
-            double sumDemandIntercept = 0;
-            double demandSum = 0;
-            double sumSupplyIntercept = 0;
-            double supplySum = 0;
-            double numOfProducers = 1;
-
-            // determine profession of the good:
-            String jobType = "";
-            for (JobOutput j : market.getJobOutputs()){
-                if (j.getGood().equals(p.getGood())){
-                    jobType = j.getJob();
-                }
-            }
-
-            // get each agent's production and demand curves
+        // get each agent's demand curves, or estimate their sums from a sample of agents, then the supply curves
+        // of each job from the job counts
+        PriceAggregates aggregates;
+        PriceSampler sampler = market.getPriceSampler();
+        if (sampler != null && !sampler.isRecalibrationDue(market)){
+            aggregates = sampler.estimate(market, goodIndex);
+        }
+        else {
+            aggregates = new PriceAggregates(market.getPrices());
             for (Agent a : market.getAgents()){
-                // add to demand elasticities
-                for (Priority r : a.getPriorities()){
-                    if (r.getGood().equals(p.getGood())){
-                        demandSum = demandSum + r.getPriceElasticity();
-                    }
-                }
-                // Change 0.5.9: intercept includes unmet need
-                // add demand intercept to sum
-
-                for (Map.Entry<String, Consumption> c : a.getConsumption().entrySet()) {
-                    if (c.getKey().equals(p.getGood())) {
-                        // add base demand
-                        sumDemandIntercept += (c.getValue().getTickConsumption() * 10);
-                        // also add sum of agent's unmet needs or maximum money, whichever is smaller
-                        // cap agents unmet needs at 100 * per tick consumption, to prevent runaway inflation
-
-                        // double maximumUnmetGoodNeed = c.getValue().getTotalUnmetNeed();
-                        // maximumUnmetGoodNeed = Math.min(maximumUnmetGoodNeed, c.getValue().getTickConsumption() * 100);
-
-                        // double totalMoney = a.getMoney();
-                        // sumDemandIntercept += Math.min(maximumUnmetGoodNeed, totalMoney);
-
-                        // scale demand by square root of unmet needs (to prevent extreme runaway inflation)
-                        double maximumUnmetGoodNeed = Math.sqrt(c.getValue().getTotalUnmetNeed());
-
-                        sumDemandIntercept += maximumUnmetGoodNeed;
-                        break;
-                    }
-                }
-                // SupplySum was adding one for every agent, regardless of profession!
-                if (a.getProfession().getJob().equals(jobType)){
-                    supplySum += a.getProfession().getPriceElasticityOfSupply();
-                    sumSupplyIntercept += 1;
-                }
-
-
-                // good minimum not dealt with, all production has 0 minimum across all Agents
-
-                // conditionally add to number of producers
-                if (a.getProfession().getJob().equals(jobType)){
-                    numOfProducers++;
-                }
+                addAgentCurves(a, market, aggregates, goodIndex, null);
             }
-            // reset numOfProducers if there are Producers (starts off as 1 instead of 0 to prevent div/0 errors)
-            if (numOfProducers > 1){
-                numOfProducers = numOfProducers - 1;
+            if (sampler != null){
+                sampler.recalibrate(market);
             }
+        }
+        addJobCurves(market, aggregates, goodsByJob);
+        double[] demandSum = aggregates.getDemandSlope();
+        double[] sumDemandIntercept = aggregates.getDemandIntercept();
+
+        // duplicate prices of the same good share the curves of the first one
+        for (int i = 0; i < aggregates.size(); i++){
+            int first = goodIndex.get(aggregates.getGoods()[i]);
+            demandSum[i] = demandSum[first];
+            sumDemandIntercept[i] = sumDemandIntercept[first];
+        }
 
-            // calculate average supply and demand elasticities
-
-            // System cannot handle Agents producing anything other than 1 of a good, production needs to be multiplied
-            // by price elasticity of supply before going into below equation
-
-            // assume equilibrium quantity, solve for P
-            // (supplySum * P) + sumSupplyIntercept = (demandSum * P) + sumDemandIntercept
-            // (supplySum * P) - (demandSum * P) + sumSupplyIntercept = sumDemandIntercept
-            // (supplySum * P) - (demandSum * P) = sumDemandIntercept - sumSupplyIntercept
-            // (supplySum - demandSum) * P = sumDemandIntercept - sumSupplyIntercept
-            // P = (sumDemandIntercept - sumSupplyIntercept) / (supplySum - demandSum)
+        // calculate average supply and demand elasticities
 
-            // calculate intercept price
-            // double goodPrice = (sumDemandIntercept - numOfProducers) / (0 - demandSum);
-            /*
-            //System.out.println(p.getGood());
-            //System.out.println("Supply slope sum : " + supplySum);
-            //System.out.println("Demand slope sum : " + demandSum);
-            //System.out.println(supplySum - demandSum);
+        // System cannot handle Agents producing anything other than 1 of a good, production needs to be multiplied
+        // by price elasticity of supply before going into below equation
 
-             */
+        // assume equilibrium quantity, solve for P
+        // (supplySum * P) + sumSupplyIntercept = (demandSum * P) + sumDemandIntercept
+        // (supplySum * P) - (demandSum * P) + sumSupplyIntercept = sumDemandIntercept
+        // (supplySum * P) - (demandSum * P) = sumDemandIntercept - sumSupplyIntercept
+        // (supplySum - demandSum) * P = sumDemandIntercept - sumSupplyIntercept
+        // P = (sumDemandIntercept - sumSupplyIntercept) / (supplySum - demandSum)
 
-            double goodPrice = (sumDemandIntercept - sumSupplyIntercept) / (supplySum - demandSum);
+        // calculate intercept price
+        // double goodPrice = (sumDemandIntercept - numOfProducers) / (0 - demandSum);
+        for (int i = 0; i < aggregates.size(); i++){
+            Price p = market.getPrices().get(i);
+            double goodPrice = aggregates.equilibriumPrice(i);
 
             p.setEquilibriumCost(goodPrice * p.getOriginalCost());
 
             // calculate market quantity
             // now, given P, calculate Q
-            // System.out.println(supplySum);
-            double goodQuantity = (demandSum * goodPrice) + sumDemandIntercept;
-            // System.out.println(goodQuantity);
+            // double goodQuantity = (demandSum[i] * goodPrice) + sumDemandIntercept[i];
         }
+        market.setPriceAggregates(aggregates);
     }
 
     public static void marketProductionSatisfaction (Market market){
+        marketProductionSatisfaction(market, 1);
+    }
+
+    // ticks is the number of ticks the satisfaction changes stand for, more than 1 when the phase has a period
+    public static void marketProductionSatisfaction (Market market, int ticks){
         // given a market, calculate cumulative consumption and production of each good, use this to determine whether
         // a good is over or under produced, then affect agent satisfaction accordingly.
 
         // part 1: calculate cumulative consumption and production
         HashMap<String, Double> cumulativeConsumption = new HashMap<>();
         HashMap<String, Double> cumulativeProduction = new HashMap<>();
+        // good of each job (its last job output), looked up once instead of per agent
+        HashMap<String, String> lastGoodByJob = new HashMap<String, String>();
+        for (JobOutput j : market.getJobOutputs()){
+            lastGoodByJob.put(j.getJob(), j.getGood());
+        }
 
         for (Agent a : market.getAgents()){
             // get agent consumptions, store in consumption hash map
             for (Map.Entry<String, Consumption> agentConsumption : a.getConsumption().entrySet()){
                 if (!cumulativeConsumption.containsKey(agentConsumption.getKey())){
                     cumulativeConsumption.put(agentConsumption.getKey(),
-                            agentConsumption.getValue().getTickConsumption());
+                            agentConsumption.getValue().getTickConsumption() * a.getCount());
                 }
                 else {
                     String key = agentConsumption.getKey();
                     cumulativeConsumption.put(key, cumulativeConsumption.get(key) +
-                            agentConsumption.getValue().getTickConsumption());
+                            (agentConsumption.getValue().getTickConsumption() * a.getCount()));
                 }
             }
-            // get agent production, store in production hash map
+            // get agent production, store in production hash map. It changes every tick it produces, so unlike
+            // headcounts it is summed here rather than kept in the job counts
             String agentJob = a.getProfession().getJob();
-            String agentGoodProduced = "";
+            String agentGoodProduced = lastGoodByJob.getOrDefault(agentJob, "");
             // * NOTE: the below line will not work if Agent production calculations are changed *
-            double agentQuantityProduced = a.getProfession().getSkillLevel() * a.getProfession().getShortRunProduction();
+            double agentQuantityProduced = a.getProfession().getSkillLevel() * a.getProfession().getShortRunProduction()
+                    * a.getCount();
             // System.out.println("Agent Quantity Produced: " + agentQuantityProduced);
-            for (JobOutput j : market.getJobOutputs()){
-                if (j.getJob().equals(agentJob)){
-                    agentGoodProduced = j.getGood();
-                }
-            }
             if (!cumulativeProduction.containsKey(agentGoodProduced)){
                 cumulativeProduction.put(agentGoodProduced, agentQuantityProduced);
             }
@@ -673,25 +991,19 @@ public class MarketMain {
         market.setProductionDifference(productionDifference);
 
         // part 3: given production differences, affect satisfaction of agents accordingly
+        // the changes of every good are totalled first, so the agents are visited once rather than once per good
+        int shortedGoods = 0;
+        HashMap<String, Integer> shortedGoodsByJob = new HashMap<String, Integer>();
+        HashSet<String> rewardedGoods = new HashSet<String>();
         for (Map.Entry<String, Double> difference : productionDifference.entrySet()){
             // if a good is under produced, slightly reduce the production satisfaction of agents producing
             // every other good, reflecting that agents in the market in general have an incentive to switch
             // into producing this good
             if (difference.getValue() < 0){
                 // determine shorted profession
-                String shortedProfession = "";
-                for (JobOutput o : market.getJobOutputs()){
-                    if (o.getGood().equals(difference.getKey())){
-                        shortedProfession = o.getJob();
-                        break;
-                    }
-                }
-                // loop through all agents, if they are not in the shorted profession, reduce their satisfaction by 0.5
-                for (Agent agent : market.getAgents()){
-                    if (!agent.getProfession().getJob().equals(shortedProfession)){
-                        agent.setSatisfaction(agent.getSatisfaction() - 0.5);
-                    }
-                }
+                String shortedProfession = market.getGoodJob(difference.getKey());
+                shortedGoods++;
+                shortedGoodsByJob.merge(shortedProfession, 1, Integer::sum);
             }
             // if a good is not under produced, it is in equilibrium or overproduced. In this case, check to see
             // if agents producing the good should have their production satisfaction increased as an incentive
@@ -703,29 +1015,33 @@ public class MarketMain {
 
             // market is not flooded if it has less than 10 times the sum of the Agents per tick consumption on hand.
             if (marketInventory < (10 * cumulativeConsumption.get(difference.getKey()))){
-                // if the market isn't flooded, reward producers of the good by increasing their satisfaction
-                for (Agent goodProducer : market.getAgents()){
-                    boolean producesCorrectGood = false;
-                    String agentGood = "";
-                    String agentJob = goodProducer.getProfession().getJob();
-                    for (JobOutput jobs : market.getJobOutputs()){
-                        if (jobs.getJob().equals(agentJob)){
-                            agentGood = jobs.getGood();
-                            break;
-                        }
-                    }
-                    if (difference.getKey().equals(agentGood)){
-                        goodProducer.setSatisfaction(goodProducer.getSatisfaction() + 1);
-                    }
-                }
+                rewardedGoods.add(difference.getKey());
+            }
+        }
+        if (shortedGoods == 0 && rewardedGoods.isEmpty()){
+            return;
+        }
+        for (Agent agent : market.getAgents()){
+            String agentJob = agent.getProfession().getJob();
+            // reduce satisfaction by 0.5 for every shorted good the agent isn't in the profession of
+            int otherShortedGoods = shortedGoods - shortedGoodsByJob.getOrDefault(agentJob, 0);
+            double change = -0.5 * ticks * otherShortedGoods;
+            // if the market isn't flooded, reward producers of the good by increasing their satisfaction
+            if (rewardedGoods.contains(market.getJobGood(agentJob))){
+                change += ticks;
+            }
+            if (change != 0){
+                agent.setSatisfaction(agent.getSatisfaction() + change);
             }
         }
-
-
-
     }
 
     public static void marketSupply (Market market){
+        marketSupply(market, 1);
+    }
+
+    // ticks is the number of ticks to catch up on, the reconsiderations of all of them happen in this call
+    public static void marketSupply (Market market, int ticks){
         // System.out.println(market.getProductionDifference());
         /*
         for (Agent changingCareer : market.getAgents()){
@@ -793,66 +1109,97 @@ public class MarketMain {
 
 
         // reintroduce old system for profit seeking behavior
-        for (Agent a : market.getAgents()){
-            if (Math.random() < 0.01){
-                // determine agent's good
-                String agentGood = "";
-                for (JobOutput j : market.getJobOutputs()){
-                    if (j.getJob().equals(a.getProfession().getJob())){
-                        agentGood = j.getGood();
-                        break;
-                    }
-                }
-                // determine equilibrium price of agent's good
-                double agentEquilibriumPrice = 0;
-                for(Price p : market.getPrices()){
-                    if (p.getGood().equals(agentGood)){
-                        agentEquilibriumPrice = p.getEquilibriumCost();
-                        break;
-                    }
-                }
-                // determine actual output
-                double agentProductionCurrentValue = agentEquilibriumPrice *
-                        a.getProfession().getBaseProduction() * a.getProfession().getSkillLevel();
-                double newGoodBaseProduction = 0;
-                // see if any other goods are more profitable
-                for (Price r : market.getPrices()){
-                    for (MarketInfo marketInfo : market.getMarketProfile()){
-                        if (marketInfo.getGood().equals(r.getGood())){
-                            newGoodBaseProduction = marketInfo.getBaseProduction();
-                        }
-                    }
-                    // need to add skill level query for future agent skill set
-                    double newGoodProductionValue = r.getCost() * newGoodBaseProduction;
-                    if (newGoodProductionValue > agentProductionCurrentValue){
+        // each agent has a 1% chance per tick to reconsider its career. The career scheduler samples when that
+        // happens, so only the reconsidering agents are visited instead of rolling the chance for every agent
+        if (market.getCareerScheduler() == null){
+            CareerScheduler scheduler = new CareerScheduler(0.01, market.getRandom());
+            scheduler.scheduleAll(market.getAgents());
+            market.setCareerScheduler(scheduler);
+        }
+        ArrayList<Agent> reconsidering = market.getCareerScheduler().advance(ticks);
+        if (reconsidering.isEmpty()){
+            return;
+        }
+
+        // precompute, in price order, the production value of every good along with the shared profession template
+        // to switch into it, so each reconsidering agent's comparison is O(goods) and a switch allocates nothing
+        HashMap<String, MarketInfo> profileByGood = new HashMap<String, MarketInfo>();
+        for (MarketInfo marketInfo : market.getMarketProfile()){
+            profileByGood.put(marketInfo.getGood(), marketInfo);
+        }
+        HashMap<String, String> goodByJob = new HashMap<String, String>();
+        for (JobOutput j : market.getJobOutputs()){
+            goodByJob.putIfAbsent(j.getJob(), j.getGood());
+        }
+        HashMap<String, Double> equilibriumByGood = new HashMap<String, Double>();
+        int numberOfGoods = market.getPrices().size();
+        double[] productionValues = new double[numberOfGoods];
+        ProfessionTemplate[] goodProfessions = new ProfessionTemplate[numberOfGoods];
+        double newGoodBaseProduction = 0;
+        for (int i = 0; i < numberOfGoods; i++){
+            Price r = market.getPrices().get(i);
+            equilibriumByGood.putIfAbsent(r.getGood(), r.getEquilibriumCost());
+            MarketInfo marketInfo = profileByGood.get(r.getGood());
+            if (marketInfo != null){
+                newGoodBaseProduction = marketInfo.getBaseProduction();
+            }
+            // need to add skill level query for future agent skill set
+            productionValues[i] = r.getCost() * newGoodBaseProduction;
+            goodProfessions[i] = market.getProfessionTemplate(r.getGood());
+        }
+
+        ArrayList<Agent> splitCohorts = new ArrayList<Agent>();
+        // members of the current agent switching into each good's profession
+        int[] switchingMembers = new int[numberOfGoods];
+        for (Agent a : reconsidering){
+            if (a.getCount() <= 0){
+                continue;
+            }
+            // determine agent's good and the equilibrium price of it
+            String agentGood = goodByJob.getOrDefault(a.getProfession().getJob(), "");
+            double agentEquilibriumPrice = equilibriumByGood.getOrDefault(agentGood, 0.0);
+            // determine actual output
+            double agentProductionCurrentValue = agentEquilibriumPrice *
+                    a.getProfession().getBaseProduction() * a.getProfession().getSkillLevel();
+            // each reconsidering member of a cohort sees if any other goods are more profitable
+            int reconsideringMembers = market.getCareerScheduler().sampleReconsidering(a.getCount());
+            for (int member = 0; member < reconsideringMembers; member++){
+                for (int i = 0; i < numberOfGoods; i++){
+                    if (productionValues[i] > agentProductionCurrentValue){
                         // if so, 10% chance to switch to that profession, 1% chance per agent per tick overall
-                        if (Math.random() < 0.1){
-                            // find matching profession, set agent's profession
-                            for (JobOutput o : market.getJobOutputs()){
-                                if (o.getGood().equals(r.getGood())){
-                                    double priceElasticityOfSupply = 0;
-                                    double production = 0;
-                                    for (MarketInfo marketInfo : market.getMarketProfile()){
-                                        if (marketInfo.getGood().equals(o.getGood())){
-                                            priceElasticityOfSupply = marketInfo.getPriceElasticitySupply();
-                                            production = marketInfo.getBaseProduction();
-                                        }
-                                    }
-                                    //System.out.println("Production Value (Profit)" + production);
-
-                                    a.setProfession((new Profession(o.getJob(), 1.0,
-                                            production, 1.0, priceElasticityOfSupply)));
-                                    // reset agent satisfaction
-                                    a.setSatisfaction(0.0);
-                                    break;
-                                }
+                        if (random(market).nextDouble() < 0.1){
+                            // set agent's profession to the one matching the good, if there is one
+                            if (goodProfessions[i] != null){
+                                switchingMembers[i]++;
                             }
                             break;
                         }
                     }
                 }
             }
+            // members switching to the same profession leave as a cohort of their own, unless that's all of them
+            boolean split = false;
+            for (int i = 0; i < numberOfGoods; i++){
+                if (switchingMembers[i] == 0){
+                    continue;
+                }
+                Agent switching = a;
+                if (switchingMembers[i] < a.getCount()){
+                    switching = Cohorts.split(a, switchingMembers[i]);
+                    splitCohorts.add(switching);
+                    split = true;
+                }
+                //System.out.println("Production Value (Profit)" + goodProfessions[i]);
+                switching.changeProfession(goodProfessions[i], 1.0, 1.0);
+                // reset agent satisfaction
+                switching.setSatisfaction(0.0);
+                switchingMembers[i] = 0;
+            }
+            if (split){
+                market.getCareerScheduler().reschedule(a);
+            }
         }
+        Cohorts.addAgents(market, splitCohorts);
         // discarded fix: market aware profit
         // need market-aware profit. Not a forced equilibrium, but agents need to be able to seek profit, not just
         // react to it. Current behavior creates overproduction. Demand increases in response to unmet need
@@ -910,121 +1257,526 @@ public class MarketMain {
 
     // print jobs
     public static void printJobs (Market market){
-        HashMap<String, Integer> jobsTotal = new HashMap<String, Integer>();
-        for (Agent a : market.getAgents()){
-            if (!jobsTotal.containsKey(a.getProfession().getJob())){
-                jobsTotal.put(a.getProfession().getJob(), 1);
-            }
-            else {
-                String key = a.getProfession().getJob();
-                jobsTotal.put(key, jobsTotal.get(key) + 1);
-            }
-        }
+        Map<String, Integer> jobsTotal = market.getJobCounts().getHeadcounts();
         //System.out.println(jobsTotal);
     }
 
     public static void printMoney (Market market){
+        double totalMoney = totalMoney(market);
+        //System.out.println(totalMoney);
+    }
+
+    // money held by the market and all of its agents. Summed exactly in scaled longs on a fixed point market
+    public static double totalMoney (Market market){
+        if (market.isFixedPoint()){
+            long totalMoney = FixedPoint.toFixed(market.getMoney());
+            for (Agent a : market.getAgents()){
+                totalMoney += FixedPoint.toFixed(a.getMoney()) * a.getCount();
+            }
+            return FixedPoint.toDouble(totalMoney);
+        }
         double totalMoney = market.getMoney();
         for (Agent a : market.getAgents()){
-            totalMoney = totalMoney + a.getMoney();
+            totalMoney = totalMoney + (a.getMoney() * a.getCount());
         }
-        //System.out.println(totalMoney);
+        return totalMoney;
     }
 
-    // master controller function
-    public static void runMarket (Market market, int counter) throws InterruptedException {
-        marketProductionSatisfaction(market);
-        marketProduce(market);
-        marketConsume(market);
-        marketPriorities(market);
-        marketPurchase(market);
-        marketPrices(market);
-        marketSupply(market);
+    // move prices toward the new equilibrium costs (instantaneous equilibrium unless configured otherwise)
+    public static void marketUpdatePrices (Market market){
+        marketUpdatePrices(market, 1);
+    }
+
+    public static void marketUpdatePrices (Market market, int ticks){
+        PriceUpdater priceUpdater = market.getPriceUpdater();
+        if (priceUpdater == null){
+            priceUpdater = new EquilibriumPriceUpdater();
+        }
+        priceUpdater.updatePrices(market, market.getPriceAggregates(), ticks);
 
         // make sure prices don't go negative:
+        // (applied after the update, previously setting the equilibrium cost overwrote this)
         for (Price c : market.getPrices()){
             if (c.getCost() <= 0){
                 // System.out.println("Price went below 0!!!");
                 c.setCost(c.getCost() + 0.2);
             }
+        }
+        if (market.getPriceIndicators() != null){
+            market.getPriceIndicators().update(market);
+        }
+    }
+
+    // master controller function
+    // number of ticks a phase should cover this tick, 0 if it isn't due. Always 1 without a phase schedule
+    public static int phaseTicks (Market market, String phase){
+        if (market.getPhaseSchedule() == null){
+            return 1;
+        }
+        return market.getPhaseSchedule().elapsed(phase);
+    }
+
+    // the same without marking the phase as run
+    public static int pendingPhaseTicks (Market market, String phase){
+        if (market.getPhaseSchedule() == null){
+            return 1;
+        }
+        return market.getPhaseSchedule().pending(phase);
+    }
+
+    public static void scheduledProductionSatisfaction (Market market){
+        int ticks = phaseTicks(market, PhaseSchedule.PRODUCTION_SATISFACTION);
+        if (ticks > 0){
+            marketProductionSatisfaction(market, ticks);
+        }
+    }
+
+    // marketPrices, marketSupply and marketUpdatePrices, each run only when due
+    public static void scheduledPricesAndSupply (Market market){
+        int priceTicks = phaseTicks(market, PhaseSchedule.PRICES);
+        int supplyTicks = phaseTicks(market, PhaseSchedule.SUPPLY);
+        if (priceTicks > 0){
+            marketPrices(market);
+        }
+        if (supplyTicks > 0){
+            marketSupply(market, supplyTicks);
+        }
+        if (priceTicks > 0){
+            marketUpdatePrices(market, priceTicks);
+        }
+    }
+
+    // agents trading surplus with each other, if the market has a bilateral exchange
+    public static void marketBilateralTrade (Market market){
+        if (market.getBilateralExchange() != null){
+            market.getBilateralExchange().run(market);
+        }
+    }
+
+    // deaths and births at the end of the tick, if the market has demographics
+    public static void marketDemographics (Market market){
+        if (market.getDemographics() != null){
+            market.getDemographics().run(market);
+        }
+    }
+
+    public static void runMarket (Market market, int counter) throws InterruptedException {
+        if (market.getPhaseSchedule() != null){
+            market.getPhaseSchedule().advance();
+        }
+        if (market.isDoubleBuffered()){
+            runMarketBuffered(market, counter);
+        }
+        else if (market.isConcurrent()){
+            runMarketConcurrent(market, counter);
+        }
+        else if (market.getPipeline() != null){
+            // phases declared in the pipeline, independent ones running concurrently
+            market.getPipeline().run(market);
+        }
+        else {
+            scheduledProductionSatisfaction(market);
+            marketProduce(market);
+            if (market.getFusedBlockSize() > 0){
+                marketFusedAgentPass(market);
+            }
+            else {
+                marketConsume(market);
+                marketPriorities(market);
+                marketPurchase(market);
+            }
+            marketBilateralTrade(market);
+            scheduledPricesAndSupply(market);
+        }
+        marketDemographics(market);
+
+        // merge cohorts whose states have converged again
+        if (market.isCohortCompression()){
+            Cohorts.compress(market, market.getCohortQuantum());
+        }
+        endTick(market);
+    }
+
+    // tell the market's agent observers the tick is over
+    public static void endTick (Market market){
+        if (market.getAgentObserver() != null){
+            market.getAgentObserver().tickEnded(market);
+        }
+    }
+
+    // Double buffered tick
+    // Agents read market state only from a snapshot taken at the start of the tick, and write only to themselves
+    // or to their own slot of the tick's buffers, so the agent phases run on any number of threads without locks.
+    // Market level results are reduced from the buffers in agent order and swapped in once the agents are done.
+    // Unlike runMarket, agents do not see each other's purchases within a tick: over ordered goods are rationed
+    // between everyone who ordered them.
+
+    // run body for each agent index on the market's pool (the common pool if it has none)
+    public static void forEachAgent (Market m, IntConsumer body){
+        ForkJoinPool pool = m.getPool() == null ? ForkJoinPool.commonPool() : m.getPool();
+        int numberOfAgents = m.getAgents().size();
+        pool.submit(() -> IntStream.range(0, numberOfAgents).parallel().forEach(body)).join();
+    }
+
+    // the purchasing choice of agentPurchase, made against the snapshot prices and the quantities available this
+    // tick. Returns null if the agent buys nothing
+    public static PurchaseOrder decidePurchase (int agentIndex, Agent a, MarketSnapshot previous,
+                                                ToDoubleFunction<String> available,
+                                                SatisfactionPenalties penalties, boolean fixedPoint,
+                                                RandomGenerator random){
+        return decidePurchase(agentIndex, a, previous, available, penalties, fixedPoint, random, 0);
+    }
+
+    // markup is added to every snapshot price, as a fraction of it (transport costs, see Geography)
+    public static PurchaseOrder decidePurchase (int agentIndex, Agent a, MarketSnapshot previous,
+                                                ToDoubleFunction<String> available,
+                                                SatisfactionPenalties penalties, boolean fixedPoint,
+                                                RandomGenerator random, double markup){
+        double holdMoneySatisfaction = 0.5;
+
+        ArrayList<String> goods = new ArrayList<String>();
+        ArrayList<Integer> satisfactions = new ArrayList<Integer>();
+        for (Priority p : a.getPriorities()) {
+            goods.add(p.getGood());
+            satisfactions.add((int) p.getWeight());
+        }
+        // Only and always purchases 1 unit of a good, unless addressing unmet needs
+        while (goods.size() > 0) {
+            String chosenGood = randomWeightedPick(goods, satisfactions, random);
+            double chosenGoodPrice = previous.getCost(chosenGood) * (1 + markup);
+            int index = goods.indexOf(chosenGood);
+
+            // too poor to buy the chosen good, small satisfaction decrease for producers of other goods
+            if (a.getMoney() < chosenGoodPrice) {
+                goods.remove(index);
+                satisfactions.remove(index);
+                penalties.record(agentIndex, previous.getJob(chosenGood), a.getSatisfaction() - 0.1);
+                continue;
+            }
+            // market doesn't have any to sell, diminish production satisfaction of other goods
+            double availableQuantity = available.applyAsDouble(chosenGood);
+            if (availableQuantity < 1) {
+                goods.remove(index);
+                satisfactions.remove(index);
+                penalties.record(agentIndex, previous.getJob(chosenGood), a.getSatisfaction() - 1);
+                continue;
+            }
+            // gained satisfaction is not above the base threshold of keeping the money
+            if (satisfactions.get(index) < holdMoneySatisfaction){
+                goods.remove(index);
+                satisfactions.remove(index);
+                continue;
+            }
+            // if there are unmet needs, buy more than 1 unit
+            double unmetNeedQuantity = a.getConsumption().get(chosenGood).getTotalUnmetNeed();
+            double desiredQuantity = 1;
+            if (unmetNeedQuantity > 0){
+                double goodMaxQuantity = a.getMoney() / chosenGoodPrice;
+                double personalMaximum = Math.min(unmetNeedQuantity, goodMaxQuantity);
+                desiredQuantity = Math.min(personalMaximum, availableQuantity);
+            }
+            // buy ahead of a price rise, as far as the agent can pay and the market has stock
+            double hoardingFactor = previous.getHoardingFactor(chosenGood);
+            if (hoardingFactor > 1){
+                desiredQuantity = Math.min(desiredQuantity * hoardingFactor,
+                        Math.min(a.getMoney() / chosenGoodPrice, availableQuantity));
+            }
+            if (fixedPoint){
+                desiredQuantity = FixedPoint.quantizeDown(desiredQuantity);
+            }
+            return new PurchaseOrder(chosenGood, chosenGoodPrice, desiredQuantity);
+        }
+        return null;
+    }
+
+    // the agent's side of a filled purchase: pay for it, address unmet needs first and keep the rest
+    public static void applyPurchase (Agent a, String good, double payment, double quantity){
+        a.setMoney(a.getMoney() - payment);
+        Consumption consumption = a.getConsumption().get(good);
+        double amountRemaining = quantity;
+        if (consumption.getTotalUnmetNeed() > 0){
+            if (consumption.getTotalUnmetNeed() >= amountRemaining){
+                consumption.setTotalUnmetNeed(consumption.getTotalUnmetNeed() - amountRemaining);
+                amountRemaining = 0;
+            }
+            else {
+                amountRemaining -= consumption.getTotalUnmetNeed();
+                consumption.setTotalUnmetNeed(0);
+            }
+        }
+        a.getInventory().put(good, a.getInventory().get(good) + amountRemaining);
+        for (Priority p : a.getPriorities()){
+            if (p.getGood().equals(good)){
+                p.setDirty(true);
+            }
+        }
+    }
+
+    public static void runMarketBuffered (Market market, int counter){
+        scheduledProductionSatisfaction(market);
+        // recipes ration each input between all of its users, so with recipes production is marketProduceRecipes'
+        // sequential pass. Prices haven't moved yet, so agents are still paid at the previous prices
+        boolean recipes = !productionMatrix(market).isEmpty();
+        if (recipes){
+            marketProduce(market);
+        }
+        MarketSnapshot previous = new MarketSnapshot(market);
+        ArrayList<Agent> agents = market.getAgents();
+        int numberOfAgents = agents.size();
+
+        // produce: agents are paid at the previous prices, their output goes into the buffers
+        String[] producedGoods = new String[numberOfAgents];
+        double[] producedQuantities = new double[numberOfAgents];
+        double[] producedPayments = new double[numberOfAgents];
+        forEachAgent(market, i -> {
+            Agent a = agents.get(i);
+            if (recipes || a.getCount() <= 0){
+                return;
+            }
+            String goodType = previous.getGood(a.getProfession().getJob());
+            // the market doesn't trade the agent's good, so there is no one to sell to or be paid by
+            if (!previous.getInventory().containsKey(goodType)){
+                a.getProfession().setShortRunProduction(0);
+                return;
+            }
+            double producedQuantity = amount(market,
+                    a.getProfession().getSkillLevel() * a.getProfession().getBaseProduction());
+            a.getProfession().setShortRunProduction(producedQuantity);
+            producedPayments[i] = amount(market, producedQuantity * previous.getCost(goodType));
+            a.setMoney(a.getMoney() + producedPayments[i]);
+            producedGoods[i] = goodType;
+            producedQuantities[i] = producedQuantity;
+        });
+        HashMap<String, Double> nextInventory = new HashMap<String, Double>(previous.getInventory());
+        double nextMoney = previous.getMoney();
+        for (int i = 0; i < numberOfAgents; i++){
+            if (producedGoods[i] != null){
+                int members = agents.get(i).getCount();
+                nextInventory.put(producedGoods[i],
+                        nextInventory.get(producedGoods[i]) + (producedQuantities[i] * members));
+                nextMoney -= producedPayments[i] * members;
+            }
+        }
 
-            // new temporary: set cost to equilibrium cost every tick
-            c.setCost(c.getEquilibriumCost());
+        // consume and update priorities, both only touch the agent itself and read prices. Build the price index
+        // before the threads start looking prices up
+        for (Price p : market.getPrices()){
+            market.getPrice(p.getGood());
+        }
+        forEachAgent(market, i -> {
+            if (agents.get(i).getCount() <= 0){
+                return;
+            }
+            agentConsume(agents.get(i), market);
+            agentPriorities(agents.get(i), market);
+        });
+
+        // purchase: decide against what is available after production, then ration over ordered goods
+        Map<String, Double> available = Collections.unmodifiableMap(new HashMap<String, Double>(nextInventory));
+        PurchaseOrder[] orders = new PurchaseOrder[numberOfAgents];
+        SatisfactionPenalties penalties = new SatisfactionPenalties(numberOfAgents);
+        long purchaseSeed = tickSeed(market);
+        forEachAgent(market, i -> orders[i] = agents.get(i).getCount() <= 0 ? null : decidePurchase(i, agents.get(i),
+                previous, good -> available.getOrDefault(good, 0.0), penalties, market.isFixedPoint(),
+                agentRandom(purchaseSeed, i)));
+
+        HashMap<String, Double> ordered = new HashMap<String, Double>();
+        // (in this tick all members of a cohort place the same order)
+        for (int i = 0; i < numberOfAgents; i++){
+            if (orders[i] != null){
+                ordered.merge(orders[i].getGood(), orders[i].getQuantity() * agents.get(i).getCount(), Double::sum);
+            }
+        }
+        HashMap<String, Double> fillRatios = new HashMap<String, Double>();
+        for (Map.Entry<String, Double> o : ordered.entrySet()){
+            double availableQuantity = available.get(o.getKey());
+            fillRatios.put(o.getKey(), o.getValue() > availableQuantity ? availableQuantity / o.getValue() : 1.0);
+        }
+        double[] filledQuantities = new double[numberOfAgents];
+        double[] filledPayments = new double[numberOfAgents];
+        forEachAgent(market, i -> {
+            if (orders[i] != null){
+                filledQuantities[i] = amountDown(market,
+                        orders[i].getQuantity() * fillRatios.get(orders[i].getGood()));
+                filledPayments[i] = amount(market, orders[i].getPrice() * filledQuantities[i]);
+                applyPurchase(agents.get(i), orders[i].getGood(), filledPayments[i], filledQuantities[i]);
+            }
+        });
+        for (int i = 0; i < numberOfAgents; i++){
+            if (orders[i] != null){
+                String good = orders[i].getGood();
+                int members = agents.get(i).getCount();
+                nextInventory.put(good, nextInventory.get(good) - (filledQuantities[i] * members));
+                nextMoney += filledPayments[i] * members;
+            }
         }
+        penalties.apply(agents);
+
+        // swap the next state in
+        market.setInventory(nextInventory);
+        market.setMoney(nextMoney);
 
+        marketBilateralTrade(market);
+        scheduledPricesAndSupply(market);
+    }
+
+
+    // Concurrent tick
+    // Agents run on the market's pool against a live ConcurrentInventory instead of a snapshot: production is
+    // added and purchases are taken with atomic operations, so agents see each other's purchases as they happen
+    // (first come first served) and a purchase can never overdraw the market. Satisfaction penalties are still
+    // deferred, since they write to other agents.
+    public static void runMarketConcurrent (Market market, int counter){
+        scheduledProductionSatisfaction(market);
+        // with recipes, production is marketProduceRecipes' sequential pass (see runMarketBuffered)
+        boolean recipes = !productionMatrix(market).isEmpty();
+        if (recipes){
+            marketProduce(market);
+        }
+        ArrayList<Agent> agents = market.getAgents();
+        ConcurrentInventory inventory = new ConcurrentInventory(market);
+        MarketSnapshot previous = new MarketSnapshot(market);
+
+        // produce
+        forEachAgent(market, i -> {
+            Agent a = agents.get(i);
+            if (recipes || a.getCount() <= 0){
+                return;
+            }
+            String goodType = previous.getGood(a.getProfession().getJob());
+            // the market doesn't trade the agent's good (see runMarketBuffered)
+            if (!inventory.contains(goodType)){
+                a.getProfession().setShortRunProduction(0);
+                return;
+            }
+            double producedQuantity = amount(market,
+                    a.getProfession().getSkillLevel() * a.getProfession().getBaseProduction());
+            double payment = amount(market, producedQuantity * previous.getCost(goodType));
+            a.getProfession().setShortRunProduction(producedQuantity);
+            a.setMoney(a.getMoney() + payment);
+            inventory.addMoney(-(payment * a.getCount()));
+            inventory.add(goodType, producedQuantity * a.getCount());
+        });
+
+        // consume and update priorities
+        for (Price p : market.getPrices()){
+            market.getPrice(p.getGood());
+        }
+        forEachAgent(market, i -> {
+            if (agents.get(i).getCount() <= 0){
+                return;
+            }
+            agentConsume(agents.get(i), market);
+            agentPriorities(agents.get(i), market);
+        });
+
+        // purchase, taking from the live inventory
+        SatisfactionPenalties penalties = new SatisfactionPenalties(agents.size());
+        long purchaseSeed = tickSeed(market);
+        forEachAgent(market, i -> {
+            Agent a = agents.get(i);
+            if (a.getCount() <= 0){
+                return;
+            }
+            PurchaseOrder order = decidePurchase(i, a, previous, inventory::get, penalties,
+                    market.isFixedPoint(), agentRandom(purchaseSeed, i));
+            if (order == null){
+                return;
+            }
+            // another agent may have bought some of the good since the decision, take what is still there.
+            // (in this tick all members of a cohort place the same order, and share what they get equally)
+            int members = a.getCount();
+            double takenTotal = inventory.takeUpTo(order.getGood(), order.getQuantity() * members, 1);
+            double taken = amountDown(market, takenTotal / members);
+            // what doesn't divide evenly between the members goes back
+            if (takenTotal > taken * members){
+                inventory.add(order.getGood(), takenTotal - (taken * members));
+            }
+            if (taken > 0){
+                double payment = amount(market, order.getPrice() * taken);
+                inventory.addMoney(payment * members);
+                applyPurchase(a, order.getGood(), payment, taken);
+            }
+        });
+        penalties.apply(agents);
+        inventory.store(market);
+
+        marketBilateralTrade(market);
+        scheduledPricesAndSupply(market);
     }
 
 
     public static ArrayList<Agent> makeAgents(ArrayList<MarketInfo> marketProfile, int numberOfAgents){
+        return makeAgents(marketProfile, numberOfAgents, ThreadLocalRandom.current());
+    }
+
+    public static ArrayList<Agent> makeAgents(ArrayList<MarketInfo> marketProfile, int numberOfAgents,
+                                              Random random){
+        return makeAgents(marketProfile, numberOfAgents, random, 0);
+    }
+
+    // basketSize is the number of goods each agent consumes, inventories and prioritises, a random subset of the
+    // profile picked per agent. 0 (or at least the number of goods) gives every agent every good
+    public static ArrayList<Agent> makeAgents(ArrayList<MarketInfo> marketProfile, int numberOfAgents,
+                                              Random random, int basketSize){
+        return makeAgents(marketProfile, numberOfAgents, random, basketSize,
+                ProfessionTemplate.fromProfile(marketProfile));
+    }
+
+    // professionTemplates are the templates the agents' professions share, by good (see Market.getProfessionTemplates)
+    public static ArrayList<Agent> makeAgents(ArrayList<MarketInfo> marketProfile, int numberOfAgents,
+                                              Random random, int basketSize,
+                                              HashMap<String, ProfessionTemplate> professionTemplates){
         // given information about the characteristics of a market and a number of agents, produce a list of agents
         // for that market
         ArrayList<Agent> agents = new ArrayList<Agent>();
-        int agentID = 1;
-
-        while (agentID <= numberOfAgents){
-            HashMap<String, Consumption> agentConsumption = new HashMap<String, Consumption>();
-            HashMap<String, Double> agentInventory = new HashMap<String, Double>();
-            ArrayList<Priority> agentPriorities = new ArrayList<Priority>();
-
-            ArrayList<String> professionChoices = new ArrayList<String>();
-            ArrayList<Integer> professionWeights = new ArrayList<Integer>();
-
-            // add good consumptions, inventory, and priorities
-            for (MarketInfo marketInfo : marketProfile){
-                // put base consumption with variance (standard deviation 7%)
-                // double consumptionVariance = 1 + random.nextGaussian(0.0,0.07);
-                double consumptionVariance = 1 + (0.07 * Math.random());
-                agentConsumption.put(marketInfo.getGood(), new Consumption(marketInfo.getBaseConsumption()
-                        * consumptionVariance, 0, new ArrayList<UnmetConsumption>()));
-                // put 5 * base good consumption of good in agent's inventory
-                agentInventory.put(marketInfo.getGood(), 5 * marketInfo.getBaseConsumption());
-                // add good priority to agent with variance (standard deviation 2.5%)
-                // double demandElasticityVariance = 1 + random.nextGaussian(0.0,0.025);
-                double demandElasticityVariance = 1 + (0.025 * Math.random());
-                double demandElasticity = marketInfo.getPriceElasticityDemand() * demandElasticityVariance;
-                agentPriorities.add(new Priority(marketInfo.getGood(), marketInfo.getPriorityBaseWeight(),
-                        1, 1, demandElasticity, demandElasticity,  1));
-                professionChoices.add(marketInfo.getGood());
-                professionWeights.add((int) (marketInfo.getJobChance() * 100));
-            }
-            // pick profession
-            String professionPick = randomWeightedPick(professionChoices, professionWeights);
-
-            // get production
-            double production = 0;
+        AgentInitializer initializer = new AgentInitializer(marketProfile, professionTemplates);
+        for (int agentID = 1; agentID <= numberOfAgents; agentID++){
+            // the goods of the agent's basket, in profile order
+            ArrayList<String> goods = new ArrayList<String>();
+            for (int g : sampleBasket(marketProfile.size(), basketSize, random)){
+                goods.add(marketProfile.get(g).getGood());
+            }
             // Fixed Bug in v0.5.6: Reason for price spike: production was never accessed and always set to 0 on agents,
             // meaning they wouldn't produce anything at the start!!!
-            //System.out.println("Profession Pick is " + professionPick);
-            for (MarketInfo marketInfo : marketProfile) {
-                if (professionPick.equals(marketInfo.getGood())){
-                    //System.out.println("Profession Pick is " + professionPick);
-                    //System.out.println("Taking market info from " + marketInfo.getGood());
-                    production = marketInfo.getBaseProduction();
-                }
-            }
-            //System.out.println("Setup Production" + production);
-
-            Profession agentProfession = new Profession("", 1, production, 1.0, 1.0);
-            double startingMoney = 0;
-            for (MarketInfo marketInfoRound2 : marketProfile) {
-                if (marketInfoRound2.getGood().equals(professionPick)){
-                    agentProfession.setJob(marketInfoRound2.getJobName());
-                    //double supplyElasticityVariance = 1 + random.nextGaussian(0.0,0.025);
-                    double supplyElasticityVariance = 1 + (0.025 * Math.random());
-                    agentProfession.setPriceElasticityOfSupply(marketInfoRound2.getPriceElasticitySupply()
-                            * supplyElasticityVariance);
-                    startingMoney = marketInfoRound2.getGoodCost();
-                }
-            }
-            agents.add(new Agent(Integer.toString(agentID), agentInventory, agentPriorities, agentConsumption,
-                    agentProfession, startingMoney, 0));
-            agentID++;
+            agents.add(initializer.newAgent(Integer.toString(agentID), goods, random));
         }
 
         return agents;
     }
 
+    // indices of basketSize distinct goods out of numberOfGoods, in ascending order, so baskets list their goods in
+    // profile order. Floyd's sampling only touches basketSize entries, however large the profile
+    public static int[] sampleBasket(int numberOfGoods, int basketSize, Random random){
+        if (basketSize <= 0 || basketSize >= numberOfGoods){
+            int[] all = new int[numberOfGoods];
+            for (int g = 0; g < numberOfGoods; g++){
+                all[g] = g;
+            }
+            return all;
+        }
+        HashSet<Integer> picked = new HashSet<Integer>();
+        for (int j = numberOfGoods - basketSize; j < numberOfGoods; j++){
+            int candidate = random.nextInt(j + 1);
+            picked.add(picked.contains(candidate) ? j : candidate);
+        }
+        int[] basket = new int[basketSize];
+        int b = 0;
+        for (int g : picked){
+            basket[b] = g;
+            b++;
+        }
+        Arrays.sort(basket);
+        return basket;
+    }
+
     public static Market makeMarket(ArrayList<MarketInfo> marketProfile, ArrayList<Agent> marketAgents){
+        return makeMarket(marketProfile, marketAgents, null);
+    }
+
+    // random is the market's random number generator, null to use the calling thread's
+    public static Market makeMarket(ArrayList<MarketInfo> marketProfile, ArrayList<Agent> marketAgents,
+                                    Random random){
         HashMap<String, Double> marketInventory = new HashMap<String, Double>();
         ArrayList<JobOutput> marketJobs = new ArrayList<JobOutput>();
         ArrayList<Price> marketPrices = new ArrayList<Price>();
@@ -1041,10 +1793,19 @@ public class MarketMain {
         HashMap<String, Double> cumulativeMarketConsumption = new HashMap<String, Double>();
         HashMap<String, Double> cumulativeMarketProduction = new HashMap<String, Double>();
         HashMap<String, Double> marketProductionDifference = new HashMap<String, Double>();
-        return new Market(marketAgents, marketInventory, marketJobs, marketPrices, cumulativeMarketConsumption,
-                cumulativeMarketProduction, marketProductionDifference, marketProfile,
+        Market market = new Market(marketAgents, marketInventory, marketJobs, marketPrices,
+                cumulativeMarketConsumption, cumulativeMarketProduction, marketProductionDifference, marketProfile,
                 1000 * marketAgents.size());
 
+        market.setRandom(random);
+
+        // schedule each agent's first career reconsideration
+        CareerScheduler careerScheduler = new CareerScheduler(0.01, random);
+        careerScheduler.scheduleAll(marketAgents);
+        market.setCareerScheduler(careerScheduler);
+        market.setPriceUpdater(new EquilibriumPriceUpdater());
+        return market;
+
     }
 
     public static void main(String[] args) throws InterruptedException {
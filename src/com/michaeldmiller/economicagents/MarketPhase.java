@@ -0,0 +1,39 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.EnumSet;
+import java.util.function.Consumer;
+
+// Phase backed by a method taking the market, e.g. MarketPhase("consume", reads, writes, MarketMain::marketConsume)
+public class MarketPhase implements Phase {
+    private final String name;
+    private final EnumSet<StateKey> reads;
+    private final EnumSet<StateKey> writes;
+    private final Consumer<Market> body;
+
+    public MarketPhase(String name, EnumSet<StateKey> reads, EnumSet<StateKey> writes, Consumer<Market> body) {
+        this.name = name;
+        this.reads = reads;
+        this.writes = writes;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public EnumSet<StateKey> getReads() {
+        return reads;
+    }
+
+    public EnumSet<StateKey> getWrites() {
+        return writes;
+    }
+
+    public void run(Market market) {
+        body.accept(market);
+    }
+
+    public String toString() {
+        return (this.getName() + ", reads: " + this.getReads() + ", writes: " + this.getWrites());
+    }
+}
@@ -0,0 +1,79 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Immutable copy of the market state at the start of a tick: prices, inventory, money and the job <-> good
+// mapping. In a double buffered tick every agent reads only from this, while results are written to a separate
+// next state that replaces the market's state once the tick ends.
+public class MarketSnapshot {
+    private final Map<String, Double> costs;
+    private final Map<String, Double> equilibriumCosts;
+    private final Map<String, Double> inventory;
+    private final Map<String, String> jobByGood;
+    private final Map<String, String> goodByJob;
+    // factor on the quantity bought of each good, see PriceIndicators.hoardingFactor. Empty without indicators
+    private final Map<String, Double> hoardingFactors;
+    private final double money;
+
+    public MarketSnapshot(Market market) {
+        HashMap<String, Double> costs = new HashMap<String, Double>();
+        HashMap<String, Double> equilibriumCosts = new HashMap<String, Double>();
+        HashMap<String, Double> hoardingFactors = new HashMap<String, Double>();
+        for (Price p : market.getPrices()){
+            costs.putIfAbsent(p.getGood(), p.getCost());
+            equilibriumCosts.putIfAbsent(p.getGood(), p.getEquilibriumCost());
+            if (market.getPriceIndicators() != null){
+                hoardingFactors.putIfAbsent(p.getGood(), market.getPriceIndicators().hoardingFactor(p.getGood()));
+            }
+        }
+        HashMap<String, String> jobByGood = new HashMap<String, String>();
+        HashMap<String, String> goodByJob = new HashMap<String, String>();
+        for (JobOutput j : market.getJobOutputs()){
+            jobByGood.putIfAbsent(j.getGood(), j.getJob());
+            goodByJob.putIfAbsent(j.getJob(), j.getGood());
+        }
+        this.costs = Collections.unmodifiableMap(costs);
+        this.equilibriumCosts = Collections.unmodifiableMap(equilibriumCosts);
+        this.inventory = Collections.unmodifiableMap(new HashMap<String, Double>(market.getInventory()));
+        this.jobByGood = Collections.unmodifiableMap(jobByGood);
+        this.goodByJob = Collections.unmodifiableMap(goodByJob);
+        this.hoardingFactors = Collections.unmodifiableMap(hoardingFactors);
+        this.money = market.getMoney();
+    }
+
+    public double getCost(String good) {
+        return costs.getOrDefault(good, 0.0);
+    }
+
+    public double getEquilibriumCost(String good) {
+        return equilibriumCosts.getOrDefault(good, 0.0);
+    }
+
+    public double getHoardingFactor(String good) {
+        return hoardingFactors.getOrDefault(good, 1.0);
+    }
+
+    public Map<String, Double> getInventory() {
+        return inventory;
+    }
+
+    public String getJob(String good) {
+        return jobByGood.getOrDefault(good, "");
+    }
+
+    public String getGood(String job) {
+        return goodByJob.getOrDefault(job, "");
+    }
+
+    public double getMoney() {
+        return money;
+    }
+
+    public String toString() {
+        return ("Snapshot prices: " + costs + ", " +
+                "inventory: " + this.getInventory() + ", " +
+                "money: " + this.getMoney());
+    }
+}
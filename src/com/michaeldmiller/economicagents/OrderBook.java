@@ -0,0 +1,97 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+// Bids and asks for one good, each in a heap ordered by price (highest bid and lowest ask first, ties going to the
+// lower agent index so matching is deterministic). Matching repeatedly crosses the best bid with the best ask at the
+// price halfway between them until they no longer overlap, so each match costs O(log n) in the number of orders.
+public class OrderBook {
+    private static final Comparator<TradeOrder> BEST_BID = Comparator.comparingDouble(TradeOrder::getPrice)
+            .reversed().thenComparingInt(TradeOrder::getAgentIndex);
+    private static final Comparator<TradeOrder> BEST_ASK = Comparator.comparingDouble(TradeOrder::getPrice)
+            .thenComparingInt(TradeOrder::getAgentIndex);
+    // orders with less than this left are done
+    private static final double MINIMUM_QUANTITY = 1e-9;
+
+    private final String good;
+    private final PriorityQueue<TradeOrder> bids;
+    private final PriorityQueue<TradeOrder> asks;
+    private int trades;
+    private double volume;
+    private double value;
+    private double lastPrice;
+
+    public OrderBook(String good, ArrayList<TradeOrder> bids, ArrayList<TradeOrder> asks) {
+        this.good = good;
+        // sized for the whole list up front. Adding the orders one by one is O(n log n) at worst, once per tick
+        // against the O(log n) of every match
+        this.bids = new PriorityQueue<TradeOrder>(Math.max(1, bids.size()), BEST_BID);
+        this.bids.addAll(bids);
+        this.asks = new PriorityQueue<TradeOrder>(Math.max(1, asks.size()), BEST_ASK);
+        this.asks.addAll(asks);
+        this.trades = 0;
+        this.volume = 0;
+        this.value = 0;
+        this.lastPrice = -1;
+    }
+
+    public String getGood() {
+        return good;
+    }
+
+    public int getTrades() {
+        return trades;
+    }
+
+    // quantity traded
+    public double getVolume() {
+        return volume;
+    }
+
+    // money traded
+    public double getValue() {
+        return value;
+    }
+
+    // price of the last trade, -1 if there was none
+    public double getLastPrice() {
+        return lastPrice;
+    }
+
+    public void add(TradeOrder order){
+        (order.isBid() ? bids : asks).add(order);
+    }
+
+    // cross the book. Quantities and payments are rounded like agentPurchase's on a fixed point market
+    public void match(Market m){
+        while (!bids.isEmpty() && !asks.isEmpty() && bids.peek().getPrice() >= asks.peek().getPrice()){
+            TradeOrder bid = bids.peek();
+            TradeOrder ask = asks.peek();
+            double price = (bid.getPrice() + ask.getPrice()) / 2;
+            double quantity = MarketMain.amountDown(m, Math.min(bid.getRemaining(), ask.getRemaining()));
+            if (quantity > 0){
+                double payment = MarketMain.amount(m, price * quantity);
+                bid.fill(quantity, payment);
+                ask.fill(quantity, payment);
+                trades++;
+                volume += quantity;
+                value += payment;
+                lastPrice = price;
+            }
+            // an order is done once what's left of it rounds to nothing
+            if (quantity <= 0 || MarketMain.amountDown(m, bid.getRemaining()) < MINIMUM_QUANTITY){
+                bids.poll();
+            }
+            if (quantity <= 0 || MarketMain.amountDown(m, ask.getRemaining()) < MINIMUM_QUANTITY){
+                asks.poll();
+            }
+        }
+    }
+
+    public String toString() {
+        return ("Order book " + this.getGood() + ", bids: " + bids.size() + ", asks: " + asks.size() + ", " +
+                "trades: " + this.getTrades() + ", volume: " + this.getVolume());
+    }
+}
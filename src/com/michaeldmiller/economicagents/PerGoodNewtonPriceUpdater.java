@@ -0,0 +1,73 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+
+// Per good equilibrium step: a scalar Newton iteration on each good's own excess demand, every good in one batched
+// pass over the aggregate arrays. It is not a solver for the market as a system: the model has own price elasticities
+// only (a Priority's and a Profession's), so PriceAggregates has no cross price terms, the Jacobian is diagonal and
+// each good's root is found on its own. Each step is limited to maxStepFraction of the current price, so a large
+// shift in demand is spread over several ticks rather than taken in one jump.
+public class PerGoodNewtonPriceUpdater implements PriceUpdater {
+    private final int iterations;
+    private final double maxStepFraction;
+    private final double tolerance;
+
+    public PerGoodNewtonPriceUpdater(int iterations, double maxStepFraction, double tolerance) {
+        this.iterations = iterations;
+        this.maxStepFraction = maxStepFraction;
+        this.tolerance = tolerance;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getMaxStepFraction() {
+        return maxStepFraction;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void updatePrices(Market market, PriceAggregates aggregates) {
+        ArrayList<Price> prices = market.getPrices();
+        int numberOfGoods = Math.min(prices.size(), aggregates.size());
+        double[] demandSlope = aggregates.getDemandSlope();
+        double[] supplySlope = aggregates.getSupplySlope();
+
+        // work in relative prices, like the aggregates
+        double[] relativePrices = new double[numberOfGoods];
+        for (int i = 0; i < numberOfGoods; i++){
+            relativePrices[i] = prices.get(i).getCost() / prices.get(i).getOriginalCost();
+        }
+        for (int iteration = 0; iteration < iterations; iteration++){
+            boolean converged = true;
+            for (int i = 0; i < numberOfGoods; i++){
+                double derivative = demandSlope[i] - supplySlope[i];
+                if (derivative == 0){
+                    continue;
+                }
+                double step = -aggregates.excessDemand(i, relativePrices[i]) / derivative;
+                double maxStep = maxStepFraction * Math.max(Math.abs(relativePrices[i]), tolerance);
+                step = Math.max(-maxStep, Math.min(maxStep, step));
+                relativePrices[i] += step;
+                if (Math.abs(step) > tolerance){
+                    converged = false;
+                }
+            }
+            if (converged){
+                break;
+            }
+        }
+        for (int i = 0; i < numberOfGoods; i++){
+            prices.get(i).setCost(relativePrices[i] * prices.get(i).getOriginalCost());
+        }
+    }
+
+    public String toString() {
+        return "Per good Newton prices, iterations: " + this.getIterations() + ", " +
+                "max step: " + this.getMaxStepFraction() + ", " +
+                "tolerance: " + this.getTolerance();
+    }
+}
@@ -0,0 +1,15 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.EnumSet;
+
+// One step of a market tick, declaring the state it reads and writes so PhasePipeline can run phases that don't
+// touch each other's state at the same time. A phase writing a piece of state doesn't need to also list it as read.
+public interface Phase {
+    String getName();
+
+    EnumSet<StateKey> getReads();
+
+    EnumSet<StateKey> getWrites();
+
+    void run(Market market);
+}
@@ -0,0 +1,182 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Tick as a pipeline of phases. Phases keep their declared order wherever it matters: a phase depends on every
+// earlier phase whose writes overlap its reads or writes, or whose reads overlap its writes. From those dependencies
+// the phases are grouped into waves, each phase going in the wave after the latest of its dependencies, and the
+// phases of a wave run concurrently on the market's pool (the common pool if it has none).
+// Custom phases are added with add, addBefore and addAfter, without editing MarketMain.
+public class PhasePipeline {
+    private ArrayList<Phase> phases;
+    // rebuilt whenever the phases change
+    private ArrayList<ArrayList<Phase>> waves;
+
+    public PhasePipeline() {
+        this.phases = new ArrayList<Phase>();
+        this.waves = null;
+    }
+
+    // the phases of runMarket, in the same order
+    public static PhasePipeline standard(){
+        PhasePipeline pipeline = new PhasePipeline();
+        pipeline.add(new MarketPhase("productionSatisfaction",
+                EnumSet.of(StateKey.AGENTS, StateKey.PROFESSIONS, StateKey.MARKET_INVENTORY),
+                EnumSet.of(StateKey.AGENT_SATISFACTION, StateKey.MARKET_STATISTICS),
+                MarketMain::scheduledProductionSatisfaction));
+        pipeline.add(new MarketPhase("produce",
+                EnumSet.of(StateKey.AGENTS, StateKey.PRICES),
+                EnumSet.of(StateKey.PROFESSIONS, StateKey.AGENT_MONEY, StateKey.MARKET_MONEY,
+                        StateKey.MARKET_INVENTORY),
+                MarketMain::marketProduce));
+        pipeline.add(new MarketPhase("consume",
+                EnumSet.of(StateKey.AGENTS),
+                EnumSet.of(StateKey.AGENT_INVENTORY, StateKey.UNMET_NEED, StateKey.PRIORITIES),
+                MarketMain::marketConsume));
+        pipeline.add(new MarketPhase("priorities",
+                EnumSet.of(StateKey.AGENTS, StateKey.AGENT_INVENTORY, StateKey.UNMET_NEED, StateKey.PRICES),
+                EnumSet.of(StateKey.PRIORITIES),
+                MarketMain::marketPriorities));
+        // purchase clears the unmet need it buys for, and satisfaction penalties look up the agents' jobs
+        pipeline.add(new MarketPhase("purchase",
+                EnumSet.of(StateKey.UNMET_NEED, StateKey.PRICES, StateKey.PROFESSIONS),
+                EnumSet.of(StateKey.AGENTS, StateKey.AGENT_INVENTORY, StateKey.AGENT_MONEY,
+                        StateKey.AGENT_SATISFACTION, StateKey.PRIORITIES, StateKey.UNMET_NEED,
+                        StateKey.MARKET_INVENTORY, StateKey.MARKET_MONEY),
+                MarketMain::marketPurchase));
+        pipeline.add(new MarketPhase("bilateralTrade",
+                EnumSet.of(StateKey.AGENTS, StateKey.PRICES, StateKey.PRIORITIES),
+                EnumSet.of(StateKey.AGENT_INVENTORY, StateKey.AGENT_MONEY, StateKey.UNMET_NEED, StateKey.PRIORITIES,
+                        StateKey.MARKET_INVENTORY, StateKey.MARKET_MONEY),
+                MarketMain::marketBilateralTrade));
+        // with a phase schedule, prices only peeks at whether the prices phase is due, updatePrices marks it as run
+        pipeline.add(new MarketPhase("prices",
+                EnumSet.of(StateKey.AGENTS, StateKey.PRIORITIES, StateKey.UNMET_NEED, StateKey.PROFESSIONS,
+                        StateKey.PRICES),
+                EnumSet.of(StateKey.EQUILIBRIUM_PRICES),
+                m -> {
+                    if (MarketMain.pendingPhaseTicks(m, PhaseSchedule.PRICES) > 0){
+                        MarketMain.marketPrices(m);
+                    }
+                }));
+        pipeline.add(new MarketPhase("supply",
+                EnumSet.of(StateKey.PRICES, StateKey.EQUILIBRIUM_PRICES),
+                EnumSet.of(StateKey.AGENTS, StateKey.PROFESSIONS, StateKey.AGENT_SATISFACTION),
+                m -> {
+                    int ticks = MarketMain.phaseTicks(m, PhaseSchedule.SUPPLY);
+                    if (ticks > 0){
+                        MarketMain.marketSupply(m, ticks);
+                    }
+                }));
+        pipeline.add(new MarketPhase("updatePrices",
+                EnumSet.of(StateKey.EQUILIBRIUM_PRICES),
+                EnumSet.of(StateKey.PRICES),
+                m -> {
+                    int ticks = MarketMain.phaseTicks(m, PhaseSchedule.PRICES);
+                    if (ticks > 0){
+                        MarketMain.marketUpdatePrices(m, ticks);
+                    }
+                }));
+        return pipeline;
+    }
+
+    public ArrayList<Phase> getPhases() {
+        return phases;
+    }
+
+    public void add(Phase phase){
+        phases.add(phase);
+        waves = null;
+    }
+
+    public void addBefore(String name, Phase phase){
+        phases.add(indexOf(name), phase);
+        waves = null;
+    }
+
+    public void addAfter(String name, Phase phase){
+        phases.add(indexOf(name) + 1, phase);
+        waves = null;
+    }
+
+    public void remove(String name){
+        phases.remove(indexOf(name));
+        waves = null;
+    }
+
+    private int indexOf(String name){
+        for (int i = 0; i < phases.size(); i++){
+            if (phases.get(i).getName().equals(name)){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No phase named " + name);
+    }
+
+    // whether the later phase has to wait for the earlier one
+    private static boolean conflicts(Phase earlier, Phase later){
+        for (StateKey key : earlier.getWrites()){
+            if (later.getReads().contains(key) || later.getWrites().contains(key)){
+                return true;
+            }
+        }
+        for (StateKey key : earlier.getReads()){
+            if (later.getWrites().contains(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ArrayList<ArrayList<Phase>> getWaves(){
+        if (waves == null){
+            int[] level = new int[phases.size()];
+            ArrayList<ArrayList<Phase>> newWaves = new ArrayList<ArrayList<Phase>>();
+            for (int j = 0; j < phases.size(); j++){
+                for (int i = 0; i < j; i++){
+                    if (conflicts(phases.get(i), phases.get(j))){
+                        level[j] = Math.max(level[j], level[i] + 1);
+                    }
+                }
+                while (newWaves.size() <= level[j]){
+                    newWaves.add(new ArrayList<Phase>());
+                }
+                newWaves.get(level[j]).add(phases.get(j));
+            }
+            waves = newWaves;
+        }
+        return waves;
+    }
+
+    public void run(Market market){
+        ForkJoinPool pool = market.getPool() != null ? market.getPool() : ForkJoinPool.commonPool();
+        for (ArrayList<Phase> wave : getWaves()){
+            if (wave.size() == 1){
+                wave.get(0).run(market);
+                continue;
+            }
+            ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            for (Phase phase : wave){
+                tasks.add(pool.submit(() -> phase.run(market)));
+            }
+            for (ForkJoinTask<?> task : tasks){
+                task.join();
+            }
+        }
+    }
+
+    public String toString() {
+        StringBuilder output = new StringBuilder("Phase pipeline");
+        ArrayList<ArrayList<Phase>> currentWaves = getWaves();
+        for (int w = 0; w < currentWaves.size(); w++){
+            output.append("\nwave ").append(w).append(":");
+            for (Phase phase : currentWaves.get(w)){
+                output.append(" ").append(phase.getName());
+            }
+        }
+        return output.toString();
+    }
+}
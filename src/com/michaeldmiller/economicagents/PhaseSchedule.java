@@ -0,0 +1,67 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.HashMap;
+
+// Multi rate tick scheduling. Consumption and purchasing change every tick, but production satisfaction, prices and
+// careers move on much slower time scales, so each of those phases can be given a period in ticks and only runs when
+// it comes due. When a phase runs it is told how many ticks have elapsed since its last run, so it can apply the
+// effect of the skipped ticks: satisfaction changes are scaled by the elapsed ticks, the career scheduler catches up
+// on every elapsed tick's reconsiderations, and price updaters compound their movement.
+// Phases without a period, including every per agent phase, run every tick.
+public class PhaseSchedule {
+    public static final String PRODUCTION_SATISFACTION = "productionSatisfaction";
+    // marketPrices together with marketUpdatePrices, since the update uses the curves marketPrices computes
+    public static final String PRICES = "prices";
+    public static final String SUPPLY = "supply";
+
+    private long currentTick;
+    private HashMap<String, Integer> periods;
+    private HashMap<String, Long> lastRuns;
+
+    public PhaseSchedule() {
+        this.currentTick = 0;
+        this.periods = new HashMap<String, Integer>();
+        this.lastRuns = new HashMap<String, Long>();
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public int getPeriod(String phase){
+        return periods.getOrDefault(phase, 1);
+    }
+
+    public void setPeriod(String phase, int period){
+        periods.put(phase, Math.max(1, period));
+    }
+
+    // move to the next tick, called once at the start of runMarket
+    public void advance(){
+        currentTick++;
+    }
+
+    // the ticks elapsed would return, without marking the phase as run
+    public int pending(String phase){
+        Long lastRun = lastRuns.get(phase);
+        if (lastRun == null){
+            return 1;
+        }
+        long ticks = currentTick - lastRun;
+        return ticks < getPeriod(phase) ? 0 : (int) ticks;
+    }
+
+    // if the phase is due this tick, the number of ticks since it last ran (1 the first time it runs), otherwise 0.
+    // A due phase is marked as run, so this should be called once per phase per tick
+    public int elapsed(String phase){
+        int ticks = pending(phase);
+        if (ticks > 0){
+            lastRuns.put(phase, currentTick);
+        }
+        return ticks;
+    }
+
+    public String toString() {
+        return ("Phase schedule at tick " + this.getCurrentTick() + ", periods: " + periods);
+    }
+}
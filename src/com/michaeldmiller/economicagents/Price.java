@@ -5,12 +5,20 @@ public class Price {
     private double cost;
     private double equilibriumCost;
     private double originalCost;
+    // bumped whenever the cost moves by more than VERSION_EPSILON (relative) from the cost of the previous
+    // version, lets agents tell whether priorities computed against this price are stale
+    private long version;
+    private double versionCost;
+
+    public static final double VERSION_EPSILON = 1e-6;
 
     public Price(String good, double cost, double equilibriumCost, double originalCost) {
         this.good = good;
         this.cost = cost;
         this.equilibriumCost = equilibriumCost;
         this.originalCost = originalCost;
+        this.version = 0;
+        this.versionCost = cost;
     }
 
     public String getGood() {
@@ -29,11 +37,19 @@ public class Price {
         return originalCost;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public void setGood(String newGood) {
         good = newGood;
     }
 
     public void setCost(double newCost) {
+        if (Math.abs(newCost - versionCost) > VERSION_EPSILON * Math.max(1, Math.abs(versionCost))){
+            version++;
+            versionCost = newCost;
+        }
         cost = newCost;
     }
 
@@ -0,0 +1,117 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+
+// Market wide supply and demand curves of each good, summed over the agents by marketPrices. Indexed like the
+// market's price list. In terms of a price P relative to the good's original cost:
+// demand Q = (demandSlope * P) + demandIntercept, supply Q = (supplySlope * P) + supplyIntercept
+public class PriceAggregates {
+    private final String[] goods;
+    private final double[] demandSlope;
+    private final double[] demandIntercept;
+    private final double[] supplySlope;
+    private final double[] supplyIntercept;
+    private final double[] producers;
+    // half widths of the confidence intervals when the sums are estimated from a sample, 0 when they are exact
+    private final double[] demandSlopeError;
+    private final double[] demandInterceptError;
+    private final double[] supplySlopeError;
+    private final double[] supplyInterceptError;
+    private boolean estimated;
+
+    public PriceAggregates(ArrayList<Price> prices) {
+        int numberOfGoods = prices.size();
+        this.goods = new String[numberOfGoods];
+        for (int i = 0; i < numberOfGoods; i++){
+            goods[i] = prices.get(i).getGood();
+        }
+        this.demandSlope = new double[numberOfGoods];
+        this.demandIntercept = new double[numberOfGoods];
+        this.supplySlope = new double[numberOfGoods];
+        this.supplyIntercept = new double[numberOfGoods];
+        this.producers = new double[numberOfGoods];
+        this.demandSlopeError = new double[numberOfGoods];
+        this.demandInterceptError = new double[numberOfGoods];
+        this.supplySlopeError = new double[numberOfGoods];
+        this.supplyInterceptError = new double[numberOfGoods];
+        this.estimated = false;
+    }
+
+    public int size() {
+        return goods.length;
+    }
+
+    public String[] getGoods() {
+        return goods;
+    }
+
+    public double[] getDemandSlope() {
+        return demandSlope;
+    }
+
+    public double[] getDemandIntercept() {
+        return demandIntercept;
+    }
+
+    public double[] getSupplySlope() {
+        return supplySlope;
+    }
+
+    public double[] getSupplyIntercept() {
+        return supplyIntercept;
+    }
+
+    public double[] getProducers() {
+        return producers;
+    }
+
+    public double[] getDemandSlopeError() {
+        return demandSlopeError;
+    }
+
+    public double[] getDemandInterceptError() {
+        return demandInterceptError;
+    }
+
+    public double[] getSupplySlopeError() {
+        return supplySlopeError;
+    }
+
+    public double[] getSupplyInterceptError() {
+        return supplyInterceptError;
+    }
+
+    public boolean isEstimated() {
+        return estimated;
+    }
+
+    public void setEstimated(boolean newEstimated) {
+        estimated = newEstimated;
+    }
+
+    // quantity demanded minus quantity supplied at relative price P
+    public double excessDemand(int good, double relativePrice) {
+        return ((demandSlope[good] - supplySlope[good]) * relativePrice)
+                + (demandIntercept[good] - supplyIntercept[good]);
+    }
+
+    // relative price at which supply meets demand
+    public double equilibriumPrice(int good) {
+        // (supplySum - demandSum) * P = sumDemandIntercept - sumSupplyIntercept
+        return (demandIntercept[good] - supplyIntercept[good]) / (supplySlope[good] - demandSlope[good]);
+    }
+
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < goods.length; i++){
+            output.append("\n").append(goods[i]).append(", ")
+                    .append("demand: ").append(demandSlope[i]).append(" * P + ").append(demandIntercept[i]).append(", ")
+                    .append("supply: ").append(supplySlope[i]).append(" * P + ").append(supplyIntercept[i]);
+            if (estimated){
+                output.append(", demand intercept +/- ").append(demandInterceptError[i])
+                        .append(", supply intercept +/- ").append(supplyInterceptError[i]);
+            }
+        }
+        return output.toString();
+    }
+}
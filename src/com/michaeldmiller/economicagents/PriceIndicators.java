@@ -0,0 +1,149 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.HashMap;
+
+// Streaming indicators of each good's price history: fast and slow exponential moving averages of the cost, the
+// volatility of its tick to tick log returns (an exponentially weighted standard deviation) and momentum, the fast
+// average's relative distance above the slow one. Each update is O(1) per good in arrays allocated once, no history
+// is kept. Every agent of a market sees the same prices, so the indicators are kept per good rather than per agent.
+// With hoarding above 0 agents act on them: a rising good's priority weight is scaled by 1 + hoarding * momentum,
+// and when the rise beats the noise (momentum above volatility) agents buy that much more of it, in every tick mode
+// (agentPurchase, or decidePurchase through MarketSnapshot.getHoardingFactor).
+public class PriceIndicators {
+    private final double fastAlpha;
+    private final double slowAlpha;
+    private final double hoarding;
+    private HashMap<String, Integer> goodIndex;
+    private int numberOfPrices;
+    private double[] fast;
+    private double[] slow;
+    private double[] variance;
+    private double[] lastCost;
+    // momentum as last published to priorities, and a version bumped whenever it moves (see MarketMain.priceVersion)
+    private double[] momentum;
+    private long[] versions;
+    private long updates;
+
+    // periods in ticks, the averages' smoothing factors are 2 / (period + 1)
+    public PriceIndicators(int fastPeriod, int slowPeriod, double hoarding) {
+        this.fastAlpha = 2.0 / (Math.max(1, fastPeriod) + 1);
+        this.slowAlpha = 2.0 / (Math.max(1, slowPeriod) + 1);
+        this.hoarding = hoarding;
+        this.goodIndex = null;
+        this.numberOfPrices = -1;
+        this.updates = 0;
+    }
+
+    public double getHoarding() {
+        return hoarding;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    // fold the market's current prices in, called once prices have been updated
+    public void update(Market market){
+        if (market.getPrices().size() != numberOfPrices){
+            allocate(market);
+        }
+        for (int i = 0; i < numberOfPrices; i++){
+            double cost = market.getPrices().get(i).getCost();
+            if (updates == 0){
+                fast[i] = cost;
+                slow[i] = cost;
+                lastCost[i] = cost;
+                continue;
+            }
+            if (cost > 0 && lastCost[i] > 0){
+                double logReturn = Math.log(cost / lastCost[i]);
+                variance[i] = (1 - fastAlpha) * (variance[i] + (fastAlpha * logReturn * logReturn));
+            }
+            lastCost[i] = cost;
+            fast[i] += fastAlpha * (cost - fast[i]);
+            slow[i] += slowAlpha * (cost - slow[i]);
+            double newMomentum = slow[i] > 0 ? (fast[i] - slow[i]) / slow[i] : 0;
+            if (Math.abs(newMomentum - momentum[i]) > Price.VERSION_EPSILON){
+                momentum[i] = newMomentum;
+                versions[i]++;
+            }
+        }
+        updates++;
+    }
+
+    // (re)start the indicators when the price list is new. Versions carry over by good and move once more (the
+    // momentum restarts at 0), so price version + indicator version never repeats a value a priority recorded
+    private void allocate(Market market){
+        HashMap<String, Integer> oldIndex = goodIndex;
+        long[] oldVersions = versions;
+        numberOfPrices = market.getPrices().size();
+        goodIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < numberOfPrices; i++){
+            goodIndex.putIfAbsent(market.getPrices().get(i).getGood(), i);
+        }
+        fast = new double[numberOfPrices];
+        slow = new double[numberOfPrices];
+        variance = new double[numberOfPrices];
+        lastCost = new double[numberOfPrices];
+        momentum = new double[numberOfPrices];
+        versions = new long[numberOfPrices];
+        if (oldIndex != null){
+            for (int i = 0; i < numberOfPrices; i++){
+                Integer old = oldIndex.get(market.getPrices().get(i).getGood());
+                if (old != null){
+                    versions[i] = oldVersions[old] + 1;
+                }
+            }
+        }
+        updates = 0;
+    }
+
+    private int index(String good){
+        if (goodIndex == null){
+            return -1;
+        }
+        Integer i = goodIndex.get(good);
+        return i == null ? -1 : i;
+    }
+
+    public double getAverage(String good){
+        int i = index(good);
+        return i < 0 ? 0 : fast[i];
+    }
+
+    public double getSlowAverage(String good){
+        int i = index(good);
+        return i < 0 ? 0 : slow[i];
+    }
+
+    public double getVolatility(String good){
+        int i = index(good);
+        return i < 0 ? 0 : Math.sqrt(variance[i]);
+    }
+
+    public double getMomentum(String good){
+        int i = index(good);
+        return i < 0 ? 0 : momentum[i];
+    }
+
+    public long getVersion(String good){
+        int i = index(good);
+        return i < 0 ? 0 : versions[i];
+    }
+
+    // factor on the good's priority weight
+    public double weightFactor(String good){
+        return Math.max(0, 1 + (hoarding * getMomentum(good)));
+    }
+
+    // factor on the quantity bought, above 1 only while the good's rise is bigger than its noise
+    public double hoardingFactor(String good){
+        double goodMomentum = getMomentum(good);
+        return goodMomentum > getVolatility(good) ? 1 + (hoarding * goodMomentum) : 1;
+    }
+
+    public String toString() {
+        return ("Price indicators, fast alpha: " + fastAlpha + ", slow alpha: " + slowAlpha + ", " +
+                "hoarding: " + this.getHoarding() + ", updates: " + this.getUpdates());
+    }
+}
@@ -0,0 +1,186 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+// Sampled estimation of the demand curve sums used by marketPrices (the supply sums come exactly from the market's
+// JobCounts). Summing every agent's curves each tick costs O(agents) while the prices only need a few significant
+// digits, so this estimates each sum from a stratified random sample of agents instead, stratified by profession:
+// every stratum's total is its size times the mean of its sampled agents, and the variance of the estimate gives a
+// confidence interval for each sum.
+// Every recalibrationInterval ticks marketPrices does an exact pass and the strata are rebuilt. Agents that switch
+// careers in between stay in their old stratum, which keeps the estimate unbiased (each sampled agent still adds the
+// curves of its current profession), it only widens the intervals until the next recalibration. Agents appended to
+// the list (births, cohort splits) join the stratum of their job before the next estimate, and if the list was
+// replaced or rearranged (see Market.getAgentsModifications, e.g. after cohort compression) the strata are rebuilt
+// from the new indices. Neither needs an exact pass.
+public class PriceSampler {
+    private final int sampleSize;
+    private final int recalibrationInterval;
+    // z score of the reported confidence intervals, 1.96 for 95%
+    private final double confidenceZ;
+    private int ticksSinceRecalibration;
+    // agents in the strata, and the market's agentsModifications when they were built
+    private int stratifiedAgentCount;
+    private int stratifiedModifications;
+    private LinkedHashMap<String, int[]> strata;
+
+    public PriceSampler(int sampleSize, int recalibrationInterval) {
+        this(sampleSize, recalibrationInterval, 1.96);
+    }
+
+    public PriceSampler(int sampleSize, int recalibrationInterval, double confidenceZ) {
+        this.sampleSize = Math.max(1, sampleSize);
+        this.recalibrationInterval = Math.max(1, recalibrationInterval);
+        this.confidenceZ = confidenceZ;
+        this.ticksSinceRecalibration = 0;
+        this.stratifiedAgentCount = 0;
+        this.stratifiedModifications = 0;
+        this.strata = null;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getRecalibrationInterval() {
+        return recalibrationInterval;
+    }
+
+    public double getConfidenceZ() {
+        return confidenceZ;
+    }
+
+    public int getTicksSinceRecalibration() {
+        return ticksSinceRecalibration;
+    }
+
+    // an exact pass is needed before the first estimate and every recalibrationInterval ticks
+    public boolean isRecalibrationDue(Market market){
+        return strata == null || ticksSinceRecalibration >= recalibrationInterval;
+    }
+
+    // rebuild the strata after an exact pass
+    public void recalibrate(Market market){
+        stratify(market, 0, new LinkedHashMap<String, int[]>());
+        ticksSinceRecalibration = 0;
+    }
+
+    // bring the strata up to date with the agent list: rebuilt if agents moved, otherwise only appended agents added
+    private void updateStrata(Market market){
+        if (market.getAgentsModifications() != stratifiedModifications
+                || market.getAgents().size() < stratifiedAgentCount){
+            stratify(market, 0, new LinkedHashMap<String, int[]>());
+        }
+        else if (market.getAgents().size() > stratifiedAgentCount){
+            stratify(market, stratifiedAgentCount, strata);
+        }
+    }
+
+    // add the agents from the given index on to the strata by job
+    private void stratify(Market market, int from, LinkedHashMap<String, int[]> existing){
+        LinkedHashMap<String, ArrayList<Integer>> members = new LinkedHashMap<String, ArrayList<Integer>>();
+        ArrayList<Agent> agents = market.getAgents();
+        for (int i = from; i < agents.size(); i++){
+            members.computeIfAbsent(agents.get(i).getProfession().getJob(), k -> new ArrayList<Integer>()).add(i);
+        }
+        for (String job : members.keySet()){
+            ArrayList<Integer> indices = members.get(job);
+            int[] old = existing.getOrDefault(job, new int[0]);
+            int[] stratum = Arrays.copyOf(old, old.length + indices.size());
+            for (int i = 0; i < indices.size(); i++){
+                stratum[old.length + i] = indices.get(i);
+            }
+            existing.put(job, stratum);
+        }
+        strata = existing;
+        stratifiedAgentCount = agents.size();
+        stratifiedModifications = market.getAgentsModifications();
+    }
+
+    public PriceAggregates estimate(Market market, HashMap<String, Integer> goodIndex){
+        ticksSinceRecalibration++;
+        updateStrata(market);
+        ArrayList<Agent> agents = market.getAgents();
+        Random random = MarketMain.random(market);
+        PriceAggregates aggregates = new PriceAggregates(market.getPrices());
+        PriceAggregates scratch = new PriceAggregates(market.getPrices());
+        int goods = aggregates.size();
+
+        double[][] totals = {aggregates.getDemandSlope(), aggregates.getDemandIntercept(),
+                aggregates.getSupplySlope(), aggregates.getSupplyIntercept(), aggregates.getProducers()};
+        double[][] errors = {aggregates.getDemandSlopeError(), aggregates.getDemandInterceptError(),
+                aggregates.getSupplySlopeError(), aggregates.getSupplyInterceptError(), null};
+        double[][] values = {scratch.getDemandSlope(), scratch.getDemandIntercept(),
+                scratch.getSupplySlope(), scratch.getSupplyIntercept(), scratch.getProducers()};
+        double[][] variances = new double[totals.length][goods];
+        double[][] sums = new double[totals.length][goods];
+        double[][] squares = new double[totals.length][goods];
+
+        for (int[] stratum : strata.values()){
+            int stratumSize = stratum.length;
+            // proportional allocation, with at least 2 per stratum so its variance can be estimated
+            int n = (int) Math.round((double) sampleSize * stratumSize / stratifiedAgentCount);
+            n = Math.min(stratumSize, Math.max(Math.min(2, stratumSize), n));
+
+            for (double[] sum : sums){
+                Arrays.fill(sum, 0);
+            }
+            for (double[] square : squares){
+                Arrays.fill(square, 0);
+            }
+            // sample without replacement, the first n entries of a partial Fisher-Yates shuffle
+            for (int s = 0; s < n; s++){
+                int pick = s + random.nextInt(stratumSize - s);
+                int swap = stratum[s];
+                stratum[s] = stratum[pick];
+                stratum[pick] = swap;
+
+                for (double[] value : values){
+                    Arrays.fill(value, 0);
+                }
+                MarketMain.addAgentCurves(agents.get(stratum[s]), market, scratch, goodIndex, null);
+                for (int f = 0; f < values.length; f++){
+                    for (int g = 0; g < goods; g++){
+                        sums[f][g] += values[f][g];
+                        squares[f][g] += values[f][g] * values[f][g];
+                    }
+                }
+            }
+
+            // stratum total N * mean, variance N^2 * (1 - n / N) * s^2 / n
+            double finiteCorrection = 1 - ((double) n / stratumSize);
+            for (int f = 0; f < totals.length; f++){
+                for (int g = 0; g < goods; g++){
+                    double mean = sums[f][g] / n;
+                    totals[f][g] += stratumSize * mean;
+                    if (n > 1){
+                        double sampleVariance = Math.max(0, (squares[f][g] - (n * mean * mean)) / (n - 1));
+                        variances[f][g] += (double) stratumSize * stratumSize * finiteCorrection
+                                * sampleVariance / n;
+                    }
+                }
+            }
+        }
+
+        for (int f = 0; f < errors.length; f++){
+            if (errors[f] == null){
+                continue;
+            }
+            for (int g = 0; g < goods; g++){
+                errors[f][g] = confidenceZ * Math.sqrt(variances[f][g]);
+            }
+        }
+        aggregates.setEstimated(true);
+        return aggregates;
+    }
+
+    public String toString() {
+        return ("Price sampler, sample size: " + this.getSampleSize() + ", " +
+                "recalibration interval: " + this.getRecalibrationInterval() + ", " +
+                "ticks since recalibration: " + this.getTicksSinceRecalibration());
+    }
+}
@@ -0,0 +1,15 @@
+package com.michaeldmiller.economicagents;
+
+// Strategy for moving each Price's cost once marketPrices has set the equilibrium costs and aggregate curves of
+// the tick. Set per market with Market.setPriceUpdater.
+public interface PriceUpdater {
+    void updatePrices(Market market, PriceAggregates aggregates);
+
+    // update standing for several ticks, used when prices run with a period. By default the single tick update is
+    // repeated against the same curves
+    default void updatePrices(Market market, PriceAggregates aggregates, int ticks){
+        for (int t = 0; t < ticks; t++){
+            updatePrices(market, aggregates);
+        }
+    }
+}
@@ -9,6 +9,10 @@ public class Priority {
     private double priceElasticity;
     private double originalPriceElasticity;
     private double weight;
+    // set when the agent's inventory, unmet need or modifier for the good changes, cleared once recomputed
+    private boolean dirty;
+    // version of the good's Price the weight was last computed against
+    private long priceVersion;
 
     public Priority(String good, double baseWeight, double relativeNeed,
                     double modifier, double priceElasticity, double originalPriceElasticity,
@@ -20,6 +24,8 @@ public class Priority {
         this.priceElasticity = priceElasticity;
         this.originalPriceElasticity = originalPriceElasticity;
         this.weight = weight;
+        this.dirty = true;
+        this.priceVersion = -1;
     }
 
     public String getGood() {
@@ -50,6 +56,14 @@ public class Priority {
         return weight;
     }
 
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public long getPriceVersion() {
+        return priceVersion;
+    }
+
     public void setGood(String newGood) {
         good = newGood;
     }
@@ -78,6 +92,14 @@ public class Priority {
         weight = newWeight;
     }
 
+    public void setDirty(boolean newDirty) {
+        dirty = newDirty;
+    }
+
+    public void setPriceVersion(long newPriceVersion) {
+        priceVersion = newPriceVersion;
+    }
+
     public String toString() {
         return ("\n" + this.getGood() + ": " +
                 "base weight: " + this.getBaseWeight() + ", " +
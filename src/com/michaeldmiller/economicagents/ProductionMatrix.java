@@ -0,0 +1,156 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Production recipes of a market profile as a sparse input-output matrix in compressed sparse row form: one row per
+// good with a recipe (keyed by the job producing it), one column per good, each entry the quantity of the column's
+// good used per unit of the row's good. Producers are batched per row, so a tick's input requirements, rationing
+// and input costs are each one pass over the nonzeros, scaling with the size of the recipes rather than goods squared.
+public class ProductionMatrix {
+    private final String[] goods;
+    private final HashMap<String, Integer> goodIndex;
+    private final String[] rowJobs;
+    private final int[] rowOutputs;
+    private final HashMap<String, Integer> rowByJob;
+    // entries of row r are [rowStarts[r], rowStarts[r + 1])
+    private final int[] rowStarts;
+    private final int[] columns;
+    private final double[] values;
+
+    private ProductionMatrix(String[] goods, HashMap<String, Integer> goodIndex, String[] rowJobs, int[] rowOutputs,
+                             HashMap<String, Integer> rowByJob, int[] rowStarts, int[] columns, double[] values) {
+        this.goods = goods;
+        this.goodIndex = goodIndex;
+        this.rowJobs = rowJobs;
+        this.rowOutputs = rowOutputs;
+        this.rowByJob = rowByJob;
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    // inputs naming goods that aren't in the profile are ignored
+    public static ProductionMatrix build(ArrayList<MarketInfo> marketProfile){
+        String[] goods = new String[marketProfile.size()];
+        HashMap<String, Integer> goodIndex = new HashMap<String, Integer>();
+        for (int g = 0; g < goods.length; g++){
+            goods[g] = marketProfile.get(g).getGood();
+            goodIndex.putIfAbsent(goods[g], g);
+        }
+
+        ArrayList<MarketInfo> recipes = new ArrayList<MarketInfo>();
+        int nonzeros = 0;
+        for (MarketInfo marketInfo : marketProfile){
+            if (!marketInfo.getInputs().isEmpty()){
+                recipes.add(marketInfo);
+                nonzeros += marketInfo.getInputs().size();
+            }
+        }
+        String[] rowJobs = new String[recipes.size()];
+        int[] rowOutputs = new int[recipes.size()];
+        HashMap<String, Integer> rowByJob = new HashMap<String, Integer>();
+        int[] rowStarts = new int[recipes.size() + 1];
+        int[] columns = new int[nonzeros];
+        double[] values = new double[nonzeros];
+        int entry = 0;
+        for (int r = 0; r < recipes.size(); r++){
+            MarketInfo recipe = recipes.get(r);
+            rowJobs[r] = recipe.getJobName();
+            rowOutputs[r] = goodIndex.get(recipe.getGood());
+            rowByJob.putIfAbsent(recipe.getJobName(), r);
+            rowStarts[r] = entry;
+            for (Map.Entry<String, Double> input : recipe.getInputs().entrySet()){
+                Integer column = goodIndex.get(input.getKey());
+                if (column != null){
+                    columns[entry] = column;
+                    values[entry] = input.getValue();
+                    entry++;
+                }
+            }
+        }
+        rowStarts[recipes.size()] = entry;
+        return new ProductionMatrix(goods, goodIndex, rowJobs, rowOutputs, rowByJob, rowStarts, columns, values);
+    }
+
+    public String[] getGoods() {
+        return goods;
+    }
+
+    public int getRows() {
+        return rowJobs.length;
+    }
+
+    public int getNonzeros() {
+        return rowStarts[rowJobs.length];
+    }
+
+    public boolean isEmpty(){
+        return rowJobs.length == 0;
+    }
+
+    // row of the job's recipe, or -1 if the job produces a raw good
+    public int row(String job){
+        Integer row = rowByJob.get(job);
+        return row == null ? -1 : row;
+    }
+
+    public String getRowGood(int row){
+        return goods[rowOutputs[row]];
+    }
+
+    public int goodIndex(String good){
+        Integer index = goodIndex.get(good);
+        return index == null ? -1 : index;
+    }
+
+    // quantity of each good needed to produce the given output of every row
+    public double[] inputDemand(double[] output){
+        double[] demand = new double[goods.length];
+        for (int r = 0; r < rowJobs.length; r++){
+            for (int k = rowStarts[r]; k < rowStarts[r + 1]; k++){
+                demand[columns[k]] += output[r] * values[k];
+            }
+        }
+        return demand;
+    }
+
+    // fraction of its desired output each row can make from the available inputs. Scarce inputs are rationed
+    // proportionally between the rows using them, and a row is limited by its scarcest input (recipes are fixed
+    // proportions)
+    public double[] rowFractions(double[] output, double[] available){
+        double[] demand = inputDemand(output);
+        double[] fillRatios = new double[goods.length];
+        for (int g = 0; g < goods.length; g++){
+            fillRatios[g] = demand[g] > available[g] ? Math.max(0, available[g]) / demand[g] : 1;
+        }
+        double[] fractions = new double[rowJobs.length];
+        for (int r = 0; r < rowJobs.length; r++){
+            double fraction = 1;
+            for (int k = rowStarts[r]; k < rowStarts[r + 1]; k++){
+                fraction = Math.min(fraction, fillRatios[columns[k]]);
+            }
+            fractions[r] = fraction;
+        }
+        return fractions;
+    }
+
+    // cost of the inputs of one unit of each row's good at the given prices
+    public double[] rowCosts(double[] prices){
+        double[] costs = new double[rowJobs.length];
+        for (int r = 0; r < rowJobs.length; r++){
+            double cost = 0;
+            for (int k = rowStarts[r]; k < rowStarts[r + 1]; k++){
+                cost += values[k] * prices[columns[k]];
+            }
+            costs[r] = cost;
+        }
+        return costs;
+    }
+
+    public String toString() {
+        return ("Production matrix, goods: " + goods.length + ", recipes: " + this.getRows() + ", " +
+                "nonzeros: " + this.getNonzeros());
+    }
+}
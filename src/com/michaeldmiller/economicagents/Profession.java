@@ -1,57 +1,91 @@
 package com.michaeldmiller.economicagents;
 
+// An agent's own profession: the shared ProfessionTemplate of its job, and the agent's skill level, short run
+// production and supply elasticity variance (its price elasticity of supply is the template's times the variance).
+// Change it through Agent.changeProfession so observers of the agent (e.g. JobCounts) see the change
 public class Profession {
-    private String job;
+    private ProfessionTemplate template;
     private double skillLevel;
-    private double baseProduction;
     private double shortRunProduction;
-    private double priceElasticityOfSupply;
+    private double supplyElasticityVariance;
 
     // if deficiency in short run production vs market quantity, permit switch
     // problem: market quantity higher than it is possible for any combination of agents to produce
     // solution: derive production and demand curves from consumption and production /capacity/ of agents
 
-    public Profession(String job, double skillLevel, double baseProduction, double shortRunProduction,
-                      double priceElasticityOfSupply) {
-        this.job = job;
+    public Profession(ProfessionTemplate template, double skillLevel, double shortRunProduction) {
+        this(template, skillLevel, shortRunProduction, 1.0);
+    }
+
+    public Profession(ProfessionTemplate template, double skillLevel, double shortRunProduction,
+                      double supplyElasticityVariance) {
+        this.template = template;
         this.skillLevel = skillLevel;
-        this.baseProduction = baseProduction;
         this.shortRunProduction = shortRunProduction;
-        this.priceElasticityOfSupply = priceElasticityOfSupply;
+        this.supplyElasticityVariance = supplyElasticityVariance;
+    }
+
+    // a profession with a template of its own, not shared with any other agent
+    public Profession(String job, double skillLevel, double baseProduction, double shortRunProduction,
+                      double priceElasticityOfSupply) {
+        this(new ProfessionTemplate(job, "", baseProduction, priceElasticityOfSupply), skillLevel,
+                shortRunProduction, 1.0);
+    }
+
+    public ProfessionTemplate getTemplate() {
+        return template;
     }
 
     public String getJob() {
-        return job;
+        return template.getJob();
     }
 
     public double getSkillLevel() {
         return skillLevel;
     }
     public double getBaseProduction(){
-        return baseProduction;
+        return template.getBaseProduction();
     }
 
     public double getShortRunProduction() {
         return shortRunProduction;
     }
 
+    public double getSupplyElasticityVariance() {
+        return supplyElasticityVariance;
+    }
+
     public double getPriceElasticityOfSupply() {
-        return priceElasticityOfSupply;
+        return template.getPriceElasticityOfSupply() * supplyElasticityVariance;
     }
 
+    public void setTemplate(ProfessionTemplate newTemplate) {
+        template = newTemplate;
+    }
+
+    // setJob, setBaseProduction and setPriceElasticityOfSupply give this profession a template of its own with the
+    // new value, the shared template is left alone
     public void setJob(String newJob) {
-        job = newJob;
+        template = new ProfessionTemplate(newJob, template.getGood(), template.getBaseProduction(),
+                template.getPriceElasticityOfSupply());
     }
 
     public void setSkillLevel(double newSkillLevel) {
         skillLevel = newSkillLevel;
     }
     public void setBaseProduction(double newBaseProduction){
-        baseProduction= newBaseProduction;
+        template = new ProfessionTemplate(template.getJob(), template.getGood(), newBaseProduction,
+                template.getPriceElasticityOfSupply());
     }
 
     public void setPriceElasticityOfSupply(double newPriceElasticity) {
-        priceElasticityOfSupply = newPriceElasticity;
+        template = new ProfessionTemplate(template.getJob(), template.getGood(), template.getBaseProduction(),
+                newPriceElasticity);
+        supplyElasticityVariance = 1.0;
+    }
+
+    public void setSupplyElasticityVariance(double newSupplyElasticityVariance) {
+        supplyElasticityVariance = newSupplyElasticityVariance;
     }
 
     public void setShortRunProduction(double newProduction) {
@@ -0,0 +1,55 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+// The parts of a Profession every agent in the job shares: the job, the good it produces, base production and price
+// elasticity of supply. Immutable, so one template per good (see Market.getProfessionTemplate) is shared by every
+// Profession in the job, and a career switch only repoints the agent's Profession at another template.
+public class ProfessionTemplate {
+    // profession of agents without a job, producing nothing
+    public static final ProfessionTemplate NONE = new ProfessionTemplate("", "", 0, 1.0);
+
+    private final String job;
+    private final String good;
+    private final double baseProduction;
+    private final double priceElasticityOfSupply;
+
+    public ProfessionTemplate(String job, String good, double baseProduction, double priceElasticityOfSupply) {
+        this.job = job;
+        this.good = good;
+        this.baseProduction = baseProduction;
+        this.priceElasticityOfSupply = priceElasticityOfSupply;
+    }
+
+    // one template per good of the profile, by good. A good listed twice takes its last entry
+    public static LinkedHashMap<String, ProfessionTemplate> fromProfile(ArrayList<MarketInfo> marketProfile){
+        LinkedHashMap<String, ProfessionTemplate> templates = new LinkedHashMap<String, ProfessionTemplate>();
+        for (MarketInfo marketInfo : marketProfile){
+            templates.put(marketInfo.getGood(), new ProfessionTemplate(marketInfo.getJobName(), marketInfo.getGood(),
+                    marketInfo.getBaseProduction(), marketInfo.getPriceElasticitySupply()));
+        }
+        return templates;
+    }
+
+    public String getJob() {
+        return job;
+    }
+
+    public String getGood() {
+        return good;
+    }
+
+    public double getBaseProduction() {
+        return baseProduction;
+    }
+
+    public double getPriceElasticityOfSupply() {
+        return priceElasticityOfSupply;
+    }
+
+    public String toString() {
+        return (this.getJob() + " (" + this.getGood() + "), base production: " + this.getBaseProduction() + ", " +
+                "price elasticity of supply: " + this.getPriceElasticityOfSupply());
+    }
+}
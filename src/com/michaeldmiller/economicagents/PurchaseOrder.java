@@ -0,0 +1,31 @@
+package com.michaeldmiller.economicagents;
+
+// An agent's decision to buy a quantity of a good at a price, made against a MarketSnapshot and filled once every
+// agent has decided
+public class PurchaseOrder {
+    private final String good;
+    private final double price;
+    private final double quantity;
+
+    public PurchaseOrder(String good, double price, double quantity) {
+        this.good = good;
+        this.price = price;
+        this.quantity = quantity;
+    }
+
+    public String getGood() {
+        return good;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public double getQuantity() {
+        return quantity;
+    }
+
+    public String toString() {
+        return (this.getQuantity() + " " + this.getGood() + " at " + this.getPrice());
+    }
+}
@@ -0,0 +1,155 @@
+package com.michaeldmiller.economicagents;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Content addressed cache of simulation results. A seeded scenario always produces the same frames, so its result
+// is stored under the SHA-256 of the engine version and the scenario's canonical text. Results live in two tiers:
+// a small in memory LRU of recent results in front of a directory of one file per result, which is kept under
+// maxBytes by evicting the least recently used files (by modification time, which get refreshes).
+// Unseeded scenarios aren't reproducible and are never cached.
+public class ResultCache {
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, ArrayList<String>> memory;
+
+    public ResultCache(Path directory, long maxBytes, int memoryEntries) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        // access ordered, dropping the least recently used entry past memoryEntries
+        this.memory = new LinkedHashMap<String, ArrayList<String>>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayList<String>> eldest){
+                return size() > memoryEntries;
+            }
+        };
+        Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // cache key of a scenario, null if it can't be cached
+    public static String key(Scenario scenario){
+        if (scenario.getSeed() == null){
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((Simulation.ENGINE_VERSION + "\n" + scenario.toText())
+                    .getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash){
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e){
+            // every JVM has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path file(String key){
+        return directory.resolve(key + ".frames");
+    }
+
+    // cached frames of a result, or null
+    public synchronized ArrayList<String> get(String key){
+        ArrayList<String> frames = memory.get(key);
+        if (frames != null){
+            return frames;
+        }
+        Path file = file(key);
+        if (!Files.exists(file)){
+            return null;
+        }
+        try {
+            frames = new ArrayList<String>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+                frames.add(line + "\n");
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch (IOException e){
+            // treat an unreadable entry as missing
+            return null;
+        }
+        memory.put(key, frames);
+        return frames;
+    }
+
+    // store the frames of a result, each frame a single line ending in a newline
+    public synchronized void put(String key, ArrayList<String> frames){
+        memory.put(key, frames);
+        StringBuilder text = new StringBuilder();
+        for (String frame : frames){
+            text.append(frame);
+        }
+        try {
+            // write then move, so a reader never sees half a file
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.writeString(temporary, text, StandardCharsets.UTF_8);
+            Files.move(temporary, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // remove the least recently used files until the directory fits in maxBytes
+    private void evict() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)){
+            files = listing.filter(p -> p.toString().endsWith(".frames")).toList();
+        }
+        long total = 0;
+        for (Path p : files){
+            total += Files.size(p);
+        }
+        if (total <= maxBytes){
+            return;
+        }
+        ArrayList<Path> oldestFirst = new ArrayList<Path>(files);
+        oldestFirst.sort(Comparator.comparing(p -> {
+            try {
+                return Files.getLastModifiedTime(p);
+            }
+            catch (IOException e){
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path p : oldestFirst){
+            if (total <= maxBytes){
+                break;
+            }
+            total -= Files.size(p);
+            Files.deleteIfExists(p);
+            String name = p.getFileName().toString();
+            memory.remove(name.substring(0, name.length() - ".frames".length()));
+        }
+    }
+
+    public String toString() {
+        return ("Result cache in " + this.getDirectory() + ", max bytes: " + this.getMaxBytes() + ", " +
+                "in memory: " + memory.size());
+    }
+}
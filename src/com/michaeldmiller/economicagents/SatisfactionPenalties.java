@@ -0,0 +1,86 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+
+// Deferred version of the satisfaction penalty in agentPurchase, where an agent failing to buy a good sets the
+// satisfaction of every agent outside the good's profession. Penalties are recorded per agent while purchases are
+// decided concurrently, then applied in agent order as if they had happened one after another.
+public class SatisfactionPenalties {
+    // per agent, its penalties' jobs and values in the order recorded, the first counts[agent] entries used
+    private final String[][] jobs;
+    private final double[][] values;
+    private final int[] counts;
+
+    public SatisfactionPenalties(int numberOfAgents) {
+        this.jobs = new String[numberOfAgents][];
+        this.values = new double[numberOfAgents][];
+        this.counts = new int[numberOfAgents];
+    }
+
+    // record that agent number agentIndex sets the satisfaction of agents outside the job to the value.
+    // Each agent index must only be recorded from one thread at a time
+    public void record(int agentIndex, String job, double value){
+        if (jobs[agentIndex] == null){
+            jobs[agentIndex] = new String[4];
+            values[agentIndex] = new double[4];
+        }
+        if (counts[agentIndex] == values[agentIndex].length){
+            String[] grownJobs = new String[counts[agentIndex] * 2];
+            double[] grown = new double[counts[agentIndex] * 2];
+            System.arraycopy(jobs[agentIndex], 0, grownJobs, 0, counts[agentIndex]);
+            System.arraycopy(values[agentIndex], 0, grown, 0, counts[agentIndex]);
+            jobs[agentIndex] = grownJobs;
+            values[agentIndex] = grown;
+        }
+        jobs[agentIndex][counts[agentIndex]] = job;
+        values[agentIndex][counts[agentIndex]] = value;
+        counts[agentIndex]++;
+    }
+
+    // Applying the penalties one by one is O(agents * penalties). Since each penalty overwrites satisfaction,
+    // every agent ends up with the value of the last penalty outside its own job: the very last penalty, or for
+    // agents in that penalty's job, the last penalty from any other job. Finding those two is O(penalties).
+    public void apply(ArrayList<Agent> agents){
+        String lastJob = null;
+        double lastValue = 0;
+        String otherJobValueFound = null;
+        double otherJobValue = 0;
+        for (int i = counts.length - 1; i >= 0 && otherJobValueFound == null; i--){
+            for (int j = counts[i] - 1; j >= 0; j--){
+                String job = jobs[i][j];
+                if (lastJob == null){
+                    lastJob = job;
+                    lastValue = values[i][j];
+                }
+                else if (!job.equals(lastJob)){
+                    otherJobValueFound = job;
+                    otherJobValue = values[i][j];
+                    break;
+                }
+            }
+        }
+        if (lastJob == null){
+            return;
+        }
+        for (Agent a : agents){
+            if (!a.getProfession().getJob().equals(lastJob)){
+                a.setSatisfaction(lastValue);
+            }
+            else if (otherJobValueFound != null){
+                a.setSatisfaction(otherJobValue);
+            }
+        }
+    }
+
+    public int size(){
+        int total = 0;
+        for (int count : counts){
+            total += count;
+        }
+        return total;
+    }
+
+    public String toString() {
+        return ("Satisfaction penalties: " + this.size());
+    }
+}
@@ -0,0 +1,191 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// A simulation run described in plain text, one key=value per line, so other processes can submit runs to a
+// SimulationServer. Each good is a "good=" line with the MarketInfo constructor arguments, comma separated, and
+// optionally the good's recipe as a tenth field of input:quantity pairs separated by semicolons:
+//   good=Fish,0.25,1,-1,0,1,1,Fisherman,0.25
+//   good=Tools,0.1,1,-1,0,2,1,Blacksmith,0.1,Lumber:0.5;Metal:1
+// Other keys, all optional: agents, ticks, seed, basketSize (goods per agent, 0 for all), frameInterval (ticks
+// between streamed frames), and the periods of the slow phases satisfactionPeriod, pricesPeriod and supplyPeriod.
+// Blank lines and lines starting with # are ignored.
+public class Scenario {
+    private ArrayList<MarketInfo> marketProfile;
+    private int agents;
+    private int ticks;
+    private Long seed;
+    private int basketSize;
+    private int frameInterval;
+    private int satisfactionPeriod;
+    private int pricesPeriod;
+    private int supplyPeriod;
+
+    public Scenario(ArrayList<MarketInfo> marketProfile, int agents, int ticks, Long seed) {
+        this.marketProfile = marketProfile;
+        this.agents = agents;
+        this.ticks = ticks;
+        this.seed = seed;
+        this.basketSize = 0;
+        this.frameInterval = 1;
+        this.satisfactionPeriod = 1;
+        this.pricesPeriod = 1;
+        this.supplyPeriod = 1;
+    }
+
+    // throws IllegalArgumentException (including NumberFormatException) on malformed text
+    public static Scenario parse(String text){
+        Scenario scenario = new Scenario(new ArrayList<MarketInfo>(), 100, 100, null);
+        for (String rawLine : text.split("\n")){
+            String line = rawLine.trim();
+            if (line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            int split = line.indexOf('=');
+            if (split < 0){
+                throw new IllegalArgumentException("Expected key=value: " + line);
+            }
+            String key = line.substring(0, split).trim();
+            String value = line.substring(split + 1).trim();
+            switch (key){
+                case "good" -> scenario.marketProfile.add(parseGood(value));
+                case "agents" -> scenario.agents = Integer.parseInt(value);
+                case "ticks" -> scenario.ticks = Integer.parseInt(value);
+                case "seed" -> scenario.seed = Long.parseLong(value);
+                case "basketSize" -> scenario.basketSize = Math.max(0, Integer.parseInt(value));
+                case "frameInterval" -> scenario.frameInterval = Math.max(1, Integer.parseInt(value));
+                case "satisfactionPeriod" -> scenario.satisfactionPeriod = Math.max(1, Integer.parseInt(value));
+                case "pricesPeriod" -> scenario.pricesPeriod = Math.max(1, Integer.parseInt(value));
+                case "supplyPeriod" -> scenario.supplyPeriod = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown scenario key: " + key);
+            }
+        }
+        if (scenario.marketProfile.isEmpty()){
+            throw new IllegalArgumentException("Scenario has no goods");
+        }
+        if (scenario.agents < 1 || scenario.ticks < 0){
+            throw new IllegalArgumentException("Scenario needs at least 1 agent and a non negative tick count");
+        }
+        return scenario;
+    }
+
+    private static MarketInfo parseGood(String value){
+        String[] fields = value.split(",");
+        if (fields.length != 9 && fields.length != 10){
+            throw new IllegalArgumentException("A good needs 9 comma separated fields and an optional recipe: "
+                    + value);
+        }
+        LinkedHashMap<String, Double> inputs = new LinkedHashMap<String, Double>();
+        if (fields.length == 10){
+            for (String input : fields[9].split(";")){
+                String[] pair = input.split(":");
+                if (pair.length != 2){
+                    throw new IllegalArgumentException("Expected input:quantity in recipe: " + input);
+                }
+                inputs.put(pair[0].trim(), Double.parseDouble(pair[1]));
+            }
+        }
+        return new MarketInfo(fields[0].trim(), Double.parseDouble(fields[1]),
+                Double.parseDouble(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4]),
+                Double.parseDouble(fields[5]), Double.parseDouble(fields[6]), fields[7].trim(),
+                Double.parseDouble(fields[8]), inputs);
+    }
+
+    // the scenario written back out in a fixed key order, recipe inputs sorted by good, so scenarios that only list
+    // a recipe's inputs in another order give the same text. parse(toText()) gives an equal scenario
+    public String toText(){
+        StringBuilder text = new StringBuilder();
+        for (MarketInfo m : marketProfile){
+            text.append("good=").append(m.getGood()).append(',').append(m.getBaseConsumption()).append(',')
+                    .append(m.getBaseProduction()).append(',').append(m.getPriceElasticityDemand()).append(',')
+                    .append(m.getPriceElasticitySupply()).append(',').append(m.getGoodCost()).append(',')
+                    .append(m.getPriorityBaseWeight()).append(',').append(m.getJobName()).append(',')
+                    .append(m.getJobChance());
+            if (!m.getInputs().isEmpty()){
+                text.append(',');
+                boolean first = true;
+                for (Map.Entry<String, Double> input : new TreeMap<String, Double>(m.getInputs()).entrySet()){
+                    text.append(first ? "" : ";").append(input.getKey()).append(':').append(input.getValue());
+                    first = false;
+                }
+            }
+            text.append('\n');
+        }
+        text.append("agents=").append(agents).append('\n');
+        text.append("ticks=").append(ticks).append('\n');
+        if (seed != null){
+            text.append("seed=").append(seed).append('\n');
+        }
+        if (basketSize > 0){
+            text.append("basketSize=").append(basketSize).append('\n');
+        }
+        text.append("frameInterval=").append(frameInterval).append('\n');
+        text.append("satisfactionPeriod=").append(satisfactionPeriod).append('\n');
+        text.append("pricesPeriod=").append(pricesPeriod).append('\n');
+        text.append("supplyPeriod=").append(supplyPeriod).append('\n');
+        return text.toString();
+    }
+
+    public Simulation toSimulation(){
+        Simulation.Builder builder = Simulation.builder(marketProfile).agents(agents).basketSize(basketSize);
+        if (seed != null){
+            builder.seed(seed);
+        }
+        if (satisfactionPeriod > 1 || pricesPeriod > 1 || supplyPeriod > 1){
+            PhaseSchedule schedule = new PhaseSchedule();
+            schedule.setPeriod(PhaseSchedule.PRODUCTION_SATISFACTION, satisfactionPeriod);
+            schedule.setPeriod(PhaseSchedule.PRICES, pricesPeriod);
+            schedule.setPeriod(PhaseSchedule.SUPPLY, supplyPeriod);
+            builder.phaseSchedule(schedule);
+        }
+        return builder.build();
+    }
+
+    public ArrayList<MarketInfo> getMarketProfile() {
+        return marketProfile;
+    }
+
+    public int getAgents() {
+        return agents;
+    }
+
+    public int getTicks() {
+        return ticks;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public int getBasketSize() {
+        return basketSize;
+    }
+
+    public int getFrameInterval() {
+        return frameInterval;
+    }
+
+    public int getSatisfactionPeriod() {
+        return satisfactionPeriod;
+    }
+
+    public int getPricesPeriod() {
+        return pricesPeriod;
+    }
+
+    public int getSupplyPeriod() {
+        return supplyPeriod;
+    }
+
+    public void setFrameInterval(int newFrameInterval) {
+        frameInterval = Math.max(1, newFrameInterval);
+    }
+
+    public String toString() {
+        return ("Scenario, goods: " + marketProfile.size() + ", agents: " + this.getAgents() + ", " +
+                "ticks: " + this.getTicks() + ", seed: " + this.getSeed());
+    }
+}
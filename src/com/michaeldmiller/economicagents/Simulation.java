@@ -0,0 +1,237 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Embeddable simulation engine: one Market with its own random number generator, thread pool, phase schedule,
+// listeners and timing, so many simulations can run side by side in one JVM without sharing any configuration.
+// Built with Simulation.builder(profile), then driven with step, step(n) or runUntil. pause can be called from any
+// thread, it stops stepping after the tick in progress until resume.
+public class Simulation implements AutoCloseable {
+    // bump whenever a change alters the results of a seeded run, it is part of every ResultCache key
+    public static final String ENGINE_VERSION = "8";
+
+    private final Market market;
+    // pool created by the builder, shut down by close
+    private final ForkJoinPool ownedPool;
+    private final ArrayList<SimulationListener> listeners;
+    private final boolean instrumented;
+    private int tick;
+    private volatile boolean paused;
+    private long lastTickNanos;
+    private long totalNanos;
+
+    private Simulation(Market market, ForkJoinPool ownedPool, ArrayList<SimulationListener> listeners,
+                       boolean instrumented) {
+        this.market = market;
+        this.ownedPool = ownedPool;
+        this.listeners = listeners;
+        this.instrumented = instrumented;
+        this.tick = 0;
+        this.paused = false;
+        this.lastTickNanos = 0;
+        this.totalNanos = 0;
+    }
+
+    public static Builder builder(ArrayList<MarketInfo> marketProfile){
+        return new Builder(marketProfile);
+    }
+
+    public Market getMarket() {
+        return market;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public void pause(){
+        paused = true;
+    }
+
+    public void resume(){
+        paused = false;
+    }
+
+    public void addListener(SimulationListener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(SimulationListener listener){
+        listeners.remove(listener);
+    }
+
+    // run one tick, returns false without running it if the simulation is paused
+    public boolean step() throws InterruptedException {
+        if (paused){
+            return false;
+        }
+        for (SimulationListener listener : listeners){
+            listener.beforeTick(this);
+        }
+        long start = instrumented ? System.nanoTime() : 0;
+        MarketMain.runMarket(market, tick);
+        if (instrumented){
+            lastTickNanos = System.nanoTime() - start;
+            totalNanos += lastTickNanos;
+        }
+        tick++;
+        for (SimulationListener listener : listeners){
+            listener.afterTick(this);
+        }
+        return true;
+    }
+
+    // run up to ticks ticks, stopping early if paused, returns the number run
+    public int step(int ticks) throws InterruptedException {
+        int run = 0;
+        while (run < ticks && step()){
+            run++;
+        }
+        return run;
+    }
+
+    // run until the condition holds (checked before each tick) or the simulation is paused, returns the number run
+    public int runUntil(Predicate<Simulation> condition) throws InterruptedException {
+        int run = 0;
+        while (!condition.test(this) && step()){
+            run++;
+        }
+        return run;
+    }
+
+    public void close(){
+        if (ownedPool != null){
+            ownedPool.shutdown();
+        }
+    }
+
+    public String toString() {
+        return ("Simulation at tick " + this.getTick() + ", agents: " + market.getAgents().size() + ", " +
+                "paused: " + this.isPaused() + (instrumented ? ", total time: " + (totalNanos / 1000000) + "ms" : ""));
+    }
+
+    public static class Builder {
+        private final ArrayList<MarketInfo> marketProfile;
+        private int numberOfAgents;
+        private int basketSize;
+        private ArrayList<Agent> agents;
+        private Long seed;
+        private int threads;
+        private PhaseSchedule phaseSchedule;
+        private PhasePipeline pipeline;
+        private boolean instrumented;
+        private ArrayList<SimulationListener> listeners;
+        private ArrayList<Consumer<Market>> configurations;
+
+        private Builder(ArrayList<MarketInfo> marketProfile) {
+            this.marketProfile = marketProfile;
+            this.numberOfAgents = 0;
+            this.basketSize = 0;
+            this.agents = null;
+            this.seed = null;
+            this.threads = 0;
+            this.phaseSchedule = null;
+            this.pipeline = null;
+            this.instrumented = false;
+            this.listeners = new ArrayList<SimulationListener>();
+            this.configurations = new ArrayList<Consumer<Market>>();
+        }
+
+        // number of agents generated by makeAgents
+        public Builder agents(int numberOfAgents){
+            this.numberOfAgents = numberOfAgents;
+            return this;
+        }
+
+        // goods in each generated agent's basket, 0 for every good
+        public Builder basketSize(int basketSize){
+            this.basketSize = basketSize;
+            return this;
+        }
+
+        // use these agents instead of generating them
+        public Builder agents(ArrayList<Agent> agents){
+            this.agents = agents;
+            return this;
+        }
+
+        // seed of the simulation's random number generator, unseeded simulations aren't reproducible
+        public Builder seed(long seed){
+            this.seed = seed;
+            return this;
+        }
+
+        // size of the simulation's own pool for the parallel modes, 0 uses the common pool
+        public Builder threads(int threads){
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder phaseSchedule(PhaseSchedule phaseSchedule){
+            this.phaseSchedule = phaseSchedule;
+            return this;
+        }
+
+        public Builder pipeline(PhasePipeline pipeline){
+            this.pipeline = pipeline;
+            return this;
+        }
+
+        // time each tick
+        public Builder instrumented(boolean instrumented){
+            this.instrumented = instrumented;
+            return this;
+        }
+
+        public Builder listener(SimulationListener listener){
+            listeners.add(listener);
+            return this;
+        }
+
+        // any other market setting, applied in order once the market is made, e.g. m -> m.setFusedBlockSize(256)
+        public Builder configure(Consumer<Market> configuration){
+            configurations.add(configuration);
+            return this;
+        }
+
+        public Simulation build(){
+            Random random = seed != null ? new Random(seed) : new Random();
+            // made once, shared by the agents made here and the market
+            LinkedHashMap<String, ProfessionTemplate> professionTemplates =
+                    ProfessionTemplate.fromProfile(marketProfile);
+            ArrayList<Agent> marketAgents = agents != null ? agents :
+                    MarketMain.makeAgents(marketProfile, numberOfAgents, random, basketSize, professionTemplates);
+            Market market = MarketMain.makeMarket(marketProfile, marketAgents, random);
+            market.setProfessionTemplates(professionTemplates);
+            market.setBasketSize(basketSize);
+            ForkJoinPool pool = null;
+            if (threads > 0){
+                pool = new ForkJoinPool(threads);
+                market.setPool(pool);
+            }
+            market.setPhaseSchedule(phaseSchedule);
+            market.setPipeline(pipeline);
+            for (Consumer<Market> configuration : configurations){
+                configuration.accept(market);
+            }
+            return new Simulation(market, pool, new ArrayList<SimulationListener>(listeners), instrumented);
+        }
+    }
+}
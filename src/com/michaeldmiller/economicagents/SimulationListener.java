@@ -0,0 +1,11 @@
+package com.michaeldmiller.economicagents;
+
+// Hooks called by a Simulation around each tick, e.g. to record prices or stream state out. Both run on the thread
+// calling step.
+public interface SimulationListener {
+    default void beforeTick(Simulation simulation){
+    }
+
+    default void afterTick(Simulation simulation){
+    }
+}
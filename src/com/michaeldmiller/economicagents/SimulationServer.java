@@ -0,0 +1,249 @@
+package com.michaeldmiller.economicagents;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Loopback HTTP server keeping a warm JVM for simulation runs. POST a Scenario's text to /simulate and the run is
+// queued on a bounded pool of simulation workers (503 when the queue is full, 400 for a scenario that doesn't parse
+// or has more agents or ticks than the server's limits); the response streams one text frame per frameInterval ticks
+// as it is computed:
+//   tick=10 money=... prices=Fish:4.2,Lumber:3.9 inventory=Fish:120.5,Lumber:98.0 jobs=Fisherman:52,Lumberjack:48
+// Frames pass through a small bounded buffer, so a client reading slowly stalls its simulation instead of letting
+// frames pile up in memory, and a client disconnecting stops its simulation. Connections are served by a separate
+// cached pool, which only ever blocks on I/O. With a ResultCache set, seeded scenarios that already ran are
+// streamed from the cache instead of being simulated again.
+public class SimulationServer {
+    // marks the end of a run's frames
+    private static final String END = "";
+    public static final int DEFAULT_MAX_AGENTS = 100000;
+    public static final int DEFAULT_MAX_TICKS = 100000;
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor simulations;
+    private final ExecutorService connections;
+    private final int frameBuffer;
+    private volatile ResultCache resultCache;
+    // largest scenario a worker will take on
+    private volatile int maxAgents;
+    private volatile int maxTicks;
+
+    // port 0 picks a free port, see getPort
+    public SimulationServer(int port, int workers, int queueCapacity, int frameBuffer) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.simulations = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity));
+        this.connections = Executors.newCachedThreadPool();
+        this.frameBuffer = Math.max(1, frameBuffer);
+        this.maxAgents = DEFAULT_MAX_AGENTS;
+        this.maxTicks = DEFAULT_MAX_TICKS;
+        server.setExecutor(connections);
+        server.createContext("/simulate", this::handleSimulate);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok\n"));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(ResultCache newResultCache) {
+        resultCache = newResultCache;
+    }
+
+    public int getMaxAgents() {
+        return maxAgents;
+    }
+
+    public int getMaxTicks() {
+        return maxTicks;
+    }
+
+    public void setMaxAgents(int newMaxAgents) {
+        maxAgents = newMaxAgents;
+    }
+
+    public void setMaxTicks(int newMaxTicks) {
+        maxTicks = newMaxTicks;
+    }
+
+    public void start(){
+        server.start();
+    }
+
+    public void stop(){
+        server.stop(0);
+        simulations.shutdownNow();
+        connections.shutdownNow();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()){
+            output.write(bytes);
+        }
+    }
+
+    private void handleSimulate(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")){
+            respond(exchange, 405, "POST a scenario to /simulate\n");
+            return;
+        }
+        Scenario scenario;
+        try {
+            scenario = Scenario.parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        }
+        catch (IllegalArgumentException e){
+            respond(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+        if (scenario.getAgents() > maxAgents || scenario.getTicks() > maxTicks){
+            respond(exchange, 400, "Scenario is over the limits of " + maxAgents + " agents and " + maxTicks
+                    + " ticks\n");
+            return;
+        }
+
+        ArrayBlockingQueue<String> frames = new ArrayBlockingQueue<String>(frameBuffer);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        try {
+            simulations.execute(() -> simulate(scenario, frames, cancelled, resultCache));
+        }
+        catch (RejectedExecutionException e){
+            respond(exchange, 503, "Simulation queue is full\n");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        // length 0 streams the body in chunks
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream output = exchange.getResponseBody()){
+            while (true){
+                String frame = frames.take();
+                if (frame.equals(END)){
+                    break;
+                }
+                output.write(frame.getBytes(StandardCharsets.UTF_8));
+                output.flush();
+            }
+        }
+        catch (IOException e){
+            // client went away
+            cancelled.set(true);
+        }
+        catch (InterruptedException e){
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // runs on a simulation worker
+    private static void simulate(Scenario scenario, ArrayBlockingQueue<String> frames, AtomicBoolean cancelled,
+                                 ResultCache cache){
+        String key = cache == null ? null : ResultCache.key(scenario);
+        try {
+            ArrayList<String> cached = key == null ? null : cache.get(key);
+            if (cached != null){
+                for (String frame : cached){
+                    publish(frames, frame, cancelled);
+                }
+                return;
+            }
+            ArrayList<String> trajectory = new ArrayList<String>();
+            try (Simulation simulation = scenario.toSimulation()){
+                while (!cancelled.get() && simulation.getTick() < scenario.getTicks()){
+                    simulation.step();
+                    if (simulation.getTick() % scenario.getFrameInterval() == 0
+                            || simulation.getTick() == scenario.getTicks()){
+                        String frame = frame(simulation);
+                        trajectory.add(frame);
+                        publish(frames, frame, cancelled);
+                    }
+                }
+            }
+            // only complete runs are cached
+            if (key != null && !cancelled.get()){
+                cache.put(key, trajectory);
+            }
+        }
+        catch (Exception e){
+            publish(frames, "error=" + e + "\n", cancelled);
+        }
+        finally {
+            publish(frames, END, cancelled);
+        }
+    }
+
+    // wait for room in the buffer, giving up if the client is gone
+    private static void publish(ArrayBlockingQueue<String> frames, String frame, AtomicBoolean cancelled){
+        try {
+            while (!frames.offer(frame, 100, TimeUnit.MILLISECONDS)){
+                if (cancelled.get()){
+                    return;
+                }
+            }
+        }
+        catch (InterruptedException e){
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String frame(Simulation simulation){
+        Market market = simulation.getMarket();
+        StringBuilder frame = new StringBuilder();
+        frame.append("tick=").append(simulation.getTick()).append(" money=").append(market.getMoney())
+                .append(" prices=");
+        for (int i = 0; i < market.getPrices().size(); i++){
+            Price p = market.getPrices().get(i);
+            frame.append(i == 0 ? "" : ",").append(p.getGood()).append(':').append(p.getCost());
+        }
+        frame.append(" inventory=");
+        boolean first = true;
+        for (Map.Entry<String, Double> good : market.getInventory().entrySet()){
+            frame.append(first ? "" : ",").append(good.getKey()).append(':').append(good.getValue());
+            first = false;
+        }
+        frame.append(" jobs=");
+        first = true;
+        for (Map.Entry<String, Integer> job : market.getJobCounts().getHeadcounts().entrySet()){
+            frame.append(first ? "" : ",").append(job.getKey()).append(':').append(job.getValue());
+            first = false;
+        }
+        return frame.append('\n').toString();
+    }
+
+    // run a server until the process is stopped: [port] [workers] [queue capacity] [result cache directory]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        SimulationServer server = new SimulationServer(port, workers, queueCapacity, 16);
+        if (args.length > 3){
+            // 1 GiB on disk, the last 64 results in memory
+            server.setResultCache(new ResultCache(Path.of(args[3]), 1L << 30, 64));
+        }
+        server.start();
+        System.out.println("Simulation server listening on " + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + server.getPort());
+    }
+}
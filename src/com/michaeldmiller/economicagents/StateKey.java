@@ -0,0 +1,25 @@
+package com.michaeldmiller.economicagents;
+
+// Pieces of market state a Phase can declare that it reads or writes, used by PhasePipeline to work out which
+// phases are independent. Agents' tick consumption rates and the market profile never change during a tick, so
+// they aren't tracked.
+public enum StateKey {
+    // membership of the agent list (cohort splits and merges add and remove records)
+    AGENTS,
+    AGENT_INVENTORY,
+    AGENT_MONEY,
+    AGENT_SATISFACTION,
+    // agents' total unmet needs
+    UNMET_NEED,
+    PRIORITIES,
+    // professions, including short run production
+    PROFESSIONS,
+    // current costs
+    PRICES,
+    // equilibrium costs and the aggregate curves computed by marketPrices
+    EQUILIBRIUM_PRICES,
+    MARKET_INVENTORY,
+    MARKET_MONEY,
+    // market consumption, production and production difference
+    MARKET_STATISTICS
+}
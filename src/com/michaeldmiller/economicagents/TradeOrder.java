@@ -0,0 +1,66 @@
+package com.michaeldmiller.economicagents;
+
+// A bid or ask an agent posts on an OrderBook. The quantity is for all members of the agent's cohort. Matching
+// records what was filled and the money that changed hands, which BilateralExchange settles with the agent afterwards
+public class TradeOrder {
+    private final int agentIndex;
+    private final String good;
+    private final boolean bid;
+    private final double price;
+    private final double quantity;
+    private double filled;
+    private double cash;
+
+    public TradeOrder(int agentIndex, String good, boolean bid, double price, double quantity) {
+        this.agentIndex = agentIndex;
+        this.good = good;
+        this.bid = bid;
+        this.price = price;
+        this.quantity = quantity;
+        this.filled = 0;
+        this.cash = 0;
+    }
+
+    public int getAgentIndex() {
+        return agentIndex;
+    }
+
+    public String getGood() {
+        return good;
+    }
+
+    public boolean isBid() {
+        return bid;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public double getQuantity() {
+        return quantity;
+    }
+
+    public double getRemaining() {
+        return quantity - filled;
+    }
+
+    public double getFilled() {
+        return filled;
+    }
+
+    // money paid for a bid, received for an ask
+    public double getCash() {
+        return cash;
+    }
+
+    public void fill(double fillQuantity, double fillCash){
+        filled += fillQuantity;
+        cash += fillCash;
+    }
+
+    public String toString() {
+        return ((this.isBid() ? "Bid " : "Ask ") + this.getQuantity() + " " + this.getGood() + " at " +
+                this.getPrice() + ", filled: " + this.getFilled());
+    }
+}
@@ -0,0 +1,389 @@
+package com.michaeldmiller.economicagents;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Wealth and satisfaction distributions of a market's agents, kept up to date as agents change rather than by sorting
+// every agent when asked. Attached to a market it observes every agent (see AgentObserver) and moves the agent's
+// weight (its cohort count) between histogram buckets whenever its money, satisfaction, count or profession changes.
+// Buckets are logarithmic, each resolution (relative) wide, on both sides of zero; values closer to zero than minimum
+// share one bucket. Every bucket keeps the exact count and sum of its values in Fenwick trees, so percentiles and top
+// shares take O(log buckets) and the Gini coefficient O(buckets), however many agents there are. Within a bucket
+// values are taken to be equal, so percentiles are accurate to the resolution.
+// Changes are only appended to a buffer of the thread making them, so the parallel tick modes don't queue on a
+// shared lock for every setMoney. The buffers are folded into the histograms once per tick (tickEnded), and before
+// any of the histograms are handed out. A fold also drops the buffers of threads that have died, so with a pool that
+// retires idle threads (e.g. a cached pool) there are only ever as many buffers as live threads that used them.
+public class WealthStatistics implements AgentObserver {
+    // largest magnitude with buckets of its own, anything bigger goes in the outermost bucket
+    private static final double MAXIMUM = 1e15;
+
+    private final double minimum;
+    private final double resolution;
+    private final Histogram money;
+    private final Histogram satisfaction;
+    private final HashMap<String, Histogram> moneyByJob;
+    private final HashMap<String, Histogram> satisfactionByJob;
+    // the buffer of every live thread that has made a change (and of any that died since the last fold), and the
+    // calling thread's
+    private final CopyOnWriteArrayList<Changes> buffers;
+    private final ThreadLocal<Changes> buffer;
+
+    public WealthStatistics() {
+        this(0.01, 0.01);
+    }
+
+    public WealthStatistics(double minimum, double resolution) {
+        this.minimum = minimum;
+        this.resolution = resolution;
+        this.money = new Histogram(minimum, resolution);
+        this.satisfaction = new Histogram(minimum, resolution);
+        this.moneyByJob = new HashMap<String, Histogram>();
+        this.satisfactionByJob = new HashMap<String, Histogram>();
+        this.buffers = new CopyOnWriteArrayList<Changes>();
+        this.buffer = ThreadLocal.withInitial(() -> {
+            Changes changes = new Changes(Thread.currentThread());
+            buffers.add(changes);
+            return changes;
+        });
+    }
+
+    public double getMinimum() {
+        return minimum;
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public synchronized Histogram getMoney() {
+        fold();
+        return money;
+    }
+
+    public synchronized Histogram getSatisfaction() {
+        fold();
+        return satisfaction;
+    }
+
+    // the money of one profession's agents, empty if there are none
+    public synchronized Histogram getMoney(String job) {
+        fold();
+        return moneyByJob.computeIfAbsent(job, k -> new Histogram(minimum, resolution));
+    }
+
+    public synchronized Histogram getSatisfaction(String job) {
+        fold();
+        return satisfactionByJob.computeIfAbsent(job, k -> new Histogram(minimum, resolution));
+    }
+
+    public synchronized HashMap<String, Histogram> getMoneyByJob() {
+        fold();
+        return moneyByJob;
+    }
+
+    // start observing the market's agents, and any it gains later through births or cohort splits
+    public synchronized void attach(Market market){
+        market.addAgentObserver(this);
+    }
+
+    // add another market's statistics into these, both must have the same minimum and resolution
+    public synchronized void merge(WealthStatistics other){
+        fold();
+        money.merge(other.getMoney());
+        satisfaction.merge(other.getSatisfaction());
+        for (Map.Entry<String, Histogram> job : other.getMoneyByJob().entrySet()){
+            getMoney(job.getKey()).merge(job.getValue());
+        }
+        for (Map.Entry<String, Histogram> job : other.satisfactionByJob.entrySet()){
+            getSatisfaction(job.getKey()).merge(job.getValue());
+        }
+    }
+
+    // apply every thread's buffered changes to the histograms. A dead thread can't add to its buffer again, so once
+    // drained it is dropped
+    public synchronized void fold(){
+        for (Changes changes : buffers){
+            changes.drainTo(this);
+            if (!changes.owner.isAlive()){
+                buffers.remove(changes);
+            }
+        }
+    }
+
+    // number of thread buffers currently kept
+    public int getBufferCount(){
+        return buffers.size();
+    }
+
+    public void tickEnded(Market market){
+        fold();
+    }
+
+    // kinds of buffered change: to the market wide histogram and the job's, or to the job's alone
+    private static final byte MONEY = 0;
+    private static final byte SATISFACTION = 1;
+    private static final byte JOB_MONEY = 2;
+    private static final byte JOB_SATISFACTION = 3;
+
+    private void apply(byte kind, String job, double value, long weight){
+        if (kind == MONEY){
+            money.add(value, weight);
+        }
+        else if (kind == SATISFACTION){
+            satisfaction.add(value, weight);
+        }
+        (kind == MONEY || kind == JOB_MONEY ? moneyByJob : satisfactionByJob)
+                .computeIfAbsent(job, k -> new Histogram(minimum, resolution)).add(value, weight);
+    }
+
+    private void add(double moneyValue, double satisfactionValue, String job, long weight){
+        if (weight == 0){
+            return;
+        }
+        Changes changes = buffer.get();
+        changes.add(MONEY, job, moneyValue, weight);
+        changes.add(SATISFACTION, job, satisfactionValue, weight);
+    }
+
+    public void agentAdded(Agent a){
+        add(a.getMoney(), a.getSatisfaction(), a.getProfession().getJob(), a.getCount());
+    }
+
+    public void moneyChanged(Agent a, double oldMoney, double newMoney){
+        if (a.getCount() > 0 && oldMoney != newMoney){
+            String job = a.getProfession().getJob();
+            Changes changes = buffer.get();
+            changes.add(MONEY, job, oldMoney, -a.getCount());
+            changes.add(MONEY, job, newMoney, a.getCount());
+        }
+    }
+
+    public void satisfactionChanged(Agent a, double oldSatisfaction, double newSatisfaction){
+        if (a.getCount() > 0 && oldSatisfaction != newSatisfaction){
+            String job = a.getProfession().getJob();
+            Changes changes = buffer.get();
+            changes.add(SATISFACTION, job, oldSatisfaction, -a.getCount());
+            changes.add(SATISFACTION, job, newSatisfaction, a.getCount());
+        }
+    }
+
+    public void countChanged(Agent a, int oldCount, int newCount){
+        add(a.getMoney(), a.getSatisfaction(), a.getProfession().getJob(), (long) newCount - oldCount);
+    }
+
+    public void professionChanged(Agent a, ProfessionTemplate newTemplate, double newSkillLevel,
+                                  double newShortRunProduction, double newSupplyElasticityVariance){
+        String oldJob = a.getProfession().getJob();
+        if (a.getCount() > 0 && !oldJob.equals(newTemplate.getJob())){
+            Changes changes = buffer.get();
+            changes.add(JOB_MONEY, oldJob, a.getMoney(), -a.getCount());
+            changes.add(JOB_SATISFACTION, oldJob, a.getSatisfaction(), -a.getCount());
+            changes.add(JOB_MONEY, newTemplate.getJob(), a.getMoney(), a.getCount());
+            changes.add(JOB_SATISFACTION, newTemplate.getJob(), a.getSatisfaction(), a.getCount());
+        }
+    }
+
+    public String toString() {
+        Histogram current = getMoney();
+        return ("Wealth statistics, agents: " + current.getPopulation() + ", total money: " + current.getTotal() + ", " +
+                "gini: " + current.gini() + ", top decile share: " + current.topShare(0.1) + ", " +
+                "median: " + current.percentile(0.5));
+    }
+
+    // one thread's changes since the last fold, in the order they were made. Only its own thread adds to it, the lock
+    // is only ever contended by a fold
+    private static class Changes {
+        private final Thread owner;
+        private byte[] kinds = new byte[64];
+        private String[] jobs = new String[64];
+        private double[] values = new double[64];
+        private long[] weights = new long[64];
+        private int size = 0;
+
+        Changes(Thread owner) {
+            this.owner = owner;
+        }
+
+        synchronized void add(byte kind, String job, double value, long weight){
+            if (size == values.length){
+                kinds = Arrays.copyOf(kinds, size * 2);
+                jobs = Arrays.copyOf(jobs, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            kinds[size] = kind;
+            jobs[size] = job;
+            values[size] = value;
+            weights[size] = weight;
+            size++;
+        }
+
+        synchronized void drainTo(WealthStatistics statistics){
+            for (int i = 0; i < size; i++){
+                statistics.apply(kinds[i], jobs[i], values[i], weights[i]);
+                jobs[i] = null;
+            }
+            size = 0;
+        }
+    }
+
+    // Log bucketed histogram of counts and sums, with Fenwick trees over the buckets
+    public static class Histogram {
+        private final double minimum;
+        private final double logRatio;
+        private final int bucketsPerSign;
+        private final int size;
+        // per bucket, and the same as Fenwick trees (1 based)
+        private final long[] counts;
+        private final double[] sums;
+        private final long[] countTree;
+        private final double[] sumTree;
+        private long population;
+        private double total;
+
+        public Histogram(double minimum, double resolution) {
+            this.minimum = minimum;
+            this.logRatio = Math.log(1 + resolution);
+            this.bucketsPerSign = Math.max(1, (int) Math.ceil(Math.log(MAXIMUM / minimum) / logRatio));
+            this.size = (2 * bucketsPerSign) + 1;
+            this.counts = new long[size];
+            this.sums = new double[size];
+            this.countTree = new long[size + 1];
+            this.sumTree = new double[size + 1];
+            this.population = 0;
+            this.total = 0;
+        }
+
+        // buckets in ascending order of value: negatives, the one around zero, positives
+        private int bucket(double value){
+            double magnitude = Math.abs(value);
+            if (magnitude < minimum){
+                return bucketsPerSign;
+            }
+            int k = Math.min(bucketsPerSign - 1, (int) (Math.log(magnitude / minimum) / logRatio));
+            return value > 0 ? bucketsPerSign + 1 + k : bucketsPerSign - 1 - k;
+        }
+
+        // weight is negative to take values out
+        public synchronized void add(double value, long weight){
+            int b = bucket(value);
+            counts[b] += weight;
+            sums[b] += value * weight;
+            for (int i = b + 1; i <= size; i += i & -i){
+                countTree[i] += weight;
+                sumTree[i] += value * weight;
+            }
+            population += weight;
+            total += value * weight;
+        }
+
+        public synchronized void merge(Histogram other){
+            for (int b = 0; b < size; b++){
+                counts[b] += other.counts[b];
+                sums[b] += other.sums[b];
+            }
+            // Fenwick trees are linear in the counts, so they add up too
+            for (int i = 1; i <= size; i++){
+                countTree[i] += other.countTree[i];
+                sumTree[i] += other.sumTree[i];
+            }
+            population += other.population;
+            total += other.total;
+        }
+
+        public synchronized long getPopulation() {
+            return population;
+        }
+
+        public synchronized double getTotal() {
+            return total;
+        }
+
+        public synchronized double mean(){
+            return population > 0 ? total / population : 0;
+        }
+
+        // count and sum of buckets [0, b]
+        private long countUpTo(int b){
+            long count = 0;
+            for (int i = b + 1; i > 0; i -= i & -i){
+                count += countTree[i];
+            }
+            return count;
+        }
+
+        private double sumUpTo(int b){
+            double sum = 0;
+            for (int i = b + 1; i > 0; i -= i & -i){
+                sum += sumTree[i];
+            }
+            return sum;
+        }
+
+        // first bucket whose running count reaches rank (1 based), by descending the count tree
+        private int bucketOfRank(long rank){
+            int position = 0;
+            long remaining = rank;
+            for (int step = Integer.highestOneBit(size); step > 0; step >>= 1){
+                if (position + step <= size && countTree[position + step] < remaining){
+                    position += step;
+                    remaining -= countTree[position];
+                }
+            }
+            return Math.min(position, size - 1);
+        }
+
+        private double bucketMean(int b){
+            return counts[b] != 0 ? sums[b] / counts[b] : 0;
+        }
+
+        // value at the fraction q (0 to 1) of the population, accurate to the bucket resolution
+        public synchronized double percentile(double q){
+            if (population <= 0){
+                return 0;
+            }
+            long rank = Math.max(1, Math.min(population, (long) Math.ceil(q * population)));
+            return bucketMean(bucketOfRank(rank));
+        }
+
+        // share of the total held by the top fraction of the population
+        public synchronized double topShare(double fraction){
+            if (population <= 0 || total == 0){
+                return 0;
+            }
+            long below = population - Math.max(0, Math.min(population, Math.round(fraction * population)));
+            if (below == 0){
+                return 1;
+            }
+            int b = bucketOfRank(below);
+            long belowInBucket = below - (b > 0 ? countUpTo(b - 1) : 0);
+            double bottom = (b > 0 ? sumUpTo(b - 1) : 0) + (belowInBucket * bucketMean(b));
+            return (total - bottom) / total;
+        }
+
+        // Gini coefficient from the Lorenz curve through the buckets
+        public synchronized double gini(){
+            if (population <= 0 || total == 0){
+                return 0;
+            }
+            double lorenzArea = 0;
+            double cumulativeSum = 0;
+            for (int b = 0; b < size; b++){
+                if (counts[b] == 0){
+                    continue;
+                }
+                lorenzArea += counts[b] * ((2 * cumulativeSum) + sums[b]);
+                cumulativeSum += sums[b];
+            }
+            return 1 - (lorenzArea / (population * total));
+        }
+
+        public String toString() {
+            return ("Histogram, population: " + this.getPopulation() + ", total: " + this.getTotal() + ", " +
+                    "mean: " + this.mean() + ", gini: " + this.gini());
+        }
+    }
+}